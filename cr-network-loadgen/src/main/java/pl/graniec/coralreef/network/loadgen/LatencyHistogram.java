@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loadgen;
+
+/**
+ * Histogram of latencies with logarithmic buckets, each divided into
+ * linear sub-buckets. Recording is constant time and does not allocate.
+ * Values up to 127 are exact, bigger ones are kept with relative error
+ * below 1/64.
+ */
+public class LatencyHistogram {
+
+	/** Number of exact buckets at the beginning */
+	private static final int LINEAR = 128;
+	
+	/** Number of sub-buckets of each logarithmic bucket */
+	private static final int SUB_BUCKETS = 64;
+	
+	/** Highest recordable value, bigger ones are clamped */
+	public static final long MAX_VALUE = (1L << 40) - 1;
+	
+	/** Bucket counters */
+	private final long[] counts;
+	
+	/** Number of recorded values */
+	private long count;
+	
+	/** Highest recorded value */
+	private long max;
+	
+	/** Lowest recorded value */
+	private long min = Long.MAX_VALUE;
+	
+	/** Sum of recorded values */
+	private long sum;
+	
+	public LatencyHistogram() {
+		counts = new long[indexOf(MAX_VALUE) + 1];
+	}
+	
+	/**
+	 * Returns number of recorded values.
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the highest recorded value or <code>0</code> if empty.
+	 */
+	public synchronized long getMax() {
+		return max;
+	}
+	
+	/**
+	 * Returns the mean of recorded values or <code>0</code> if empty.
+	 */
+	public synchronized double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+	
+	/**
+	 * Returns the lowest recorded value or <code>0</code> if empty.
+	 */
+	public synchronized long getMin() {
+		return count == 0 ? 0 : min;
+	}
+	
+	/**
+	 * Returns a value that is not exceeded by given percent of recorded
+	 * values.
+	 * 
+	 * @param percentile Percentile from <code>0</code> to <code>100</code>.
+	 * 
+	 * @return Value at the percentile or <code>0</code> if empty.
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		
+		final long rank = Math.max((long) Math.ceil(count * percentile / 100.0), 1);
+		long seen = 0;
+		
+		for (int i = 0; i < counts.length; ++i) {
+			seen += counts[i];
+			
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), max);
+			}
+		}
+		
+		return max;
+	}
+	
+	/**
+	 * Returns the highest value that falls into given bucket.
+	 */
+	private static long highestValueOf(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		
+		final int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+		final long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		
+		return ((sub + 1) << shift) - 1;
+	}
+	
+	/**
+	 * Returns the bucket of given value.
+	 */
+	private static int indexOf(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		
+		// shift that brings value to [SUB_BUCKETS, 2 * SUB_BUCKETS)
+		int shift = 0;
+		
+		while ((value >> shift) >= 2 * SUB_BUCKETS) {
+			++shift;
+		}
+		
+		return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+	}
+	
+	/**
+	 * Records a value. Negative values are recorded as <code>0</code>
+	 * and values above {@link #MAX_VALUE} as {@link #MAX_VALUE}.
+	 */
+	public synchronized void record(long value) {
+		if (value < 0) {
+			value = 0;
+		} else if (value > MAX_VALUE) {
+			value = MAX_VALUE;
+		}
+		
+		++counts[indexOf(value)];
+		++count;
+		sum += value;
+		
+		if (value < min) {
+			min = value;
+		}
+		
+		if (value > max) {
+			max = value;
+		}
+	}
+	
+	/**
+	 * Removes all recorded values.
+	 */
+	public synchronized void reset() {
+		for (int i = 0; i < counts.length; ++i) {
+			counts[i] = 0;
+		}
+		
+		count = 0;
+		sum = 0;
+		max = 0;
+		min = Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,558 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loadgen;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.Vector;
+
+import pl.graniec.coralreef.network.Dispatchable;
+import pl.graniec.coralreef.network.PacketListener;
+import pl.graniec.coralreef.network.client.Client;
+import pl.graniec.coralreef.network.client.ClientFactory;
+import pl.graniec.coralreef.network.exceptions.NetworkException;
+import pl.graniec.coralreef.network.loopback.LoopbackClient;
+import pl.graniec.coralreef.network.loopback.LoopbackServer;
+import pl.graniec.coralreef.network.server.Server;
+
+/**
+ * Measures how much load a {@link Server} can take. Generator connects
+ * a number of clients that send {@link LoadMessage} packets at a target
+ * rate, the server echoes them back by {@link EchoListener}, and the
+ * end-to-end latency and throughput are reported.
+ * <p>
+ * All clients are driven by a single loop on the calling thread. Each
+ * client has a fixed schedule of sending times and latency is measured
+ * from the scheduled time, not from the actual sending. When the loop
+ * falls behind, the waiting time is therefore included in latencies
+ * instead of being silently omitted. For the same reason a message that
+ * cannot be sent, for instance because of a full queue, is retried with
+ * its original time, messages still waiting when sending ends are
+ * recorded with the time they have waited so far, and messages that
+ * never came back are recorded with the time they have waited until the
+ * generator stopped waiting for echoes. Each pass of the loop sends at
+ * most one message per client, so a generator that fell behind does not
+ * flood the server with whole backlogs. Endpoints that implement
+ * {@link Dispatchable} are dispatched by the loop too, including the
+ * server if added by {@link #addDispatchable(Dispatchable)}.
+ * <p>
+ * Generator can be started from command line against a loopback server
+ * in the same JVM, see {@link #main(String[])}.
+ * <p>
+ * Unlike the library this is a desktop tool built as a separate module,
+ * it needs Java 5 because it measures time by {@link System#nanoTime()}.
+ * Time in milliseconds is too coarse for latencies of local connections.
+ */
+public class LoadGenerator {
+
+	/** Number of clients to connect */
+	private int clientCount = 100;
+	
+	/** Endpoints dispatched by the loop, besides clients */
+	private final Vector dispatchables = new Vector();
+	
+	/** Time to wait for echoes after sending in milliseconds */
+	private long drainTimeout = 1000;
+	
+	/** Time of sending in milliseconds */
+	private long duration = 10000;
+	
+	/** Server side echo listener or <code>null</code> */
+	private EchoListener echo;
+	
+	/** Creates clients */
+	private final ClientFactory factory;
+	
+	/** Host of tested server */
+	private final String host;
+	
+	/** Sent messages */
+	private MessageMix mix;
+	
+	/** Port of tested server */
+	private final int port;
+	
+	/** Chooses messages from the mix */
+	private final Random random = new Random();
+	
+	/** Messages per second of each client */
+	private double rate = 10;
+	
+	/**
+	 * Creates a new load generator.
+	 * 
+	 * @param factory Factory of clients.
+	 * @param host Host of tested server.
+	 * @param port Port of tested server.
+	 */
+	public LoadGenerator(ClientFactory factory, String host, int port) {
+		if (factory == null) {
+			throw new IllegalArgumentException("factory cannot be null");
+		}
+		
+		this.factory = factory;
+		this.host = host;
+		this.port = port;
+	}
+	
+	/**
+	 * Adds an endpoint that will be dispatched by the loop, for instance
+	 * a server running in the same JVM.
+	 */
+	public void addDispatchable(Dispatchable d) {
+		dispatchables.addElement(d);
+	}
+	
+	private int dispatch(Client[] clients) {
+		int count = 0;
+		
+		for (int i = 0; i < dispatchables.size(); ++i) {
+			count += ((Dispatchable) dispatchables.elementAt(i)).dispatch();
+		}
+		
+		for (int i = 0; i < clients.length; ++i) {
+			if (clients[i] instanceof Dispatchable) {
+				count += ((Dispatchable) clients[i]).dispatch();
+			}
+		}
+		
+		return count;
+	}
+	
+	public int getClientCount() {
+		return clientCount;
+	}
+	
+	public long getDrainTimeout() {
+		return drainTimeout;
+	}
+	
+	public long getDuration() {
+		return duration;
+	}
+	
+	public double getRate() {
+		return rate;
+	}
+	
+	/**
+	 * Runs a load test against a loopback server.
+	 * <p>
+	 * Arguments are given as <code>name=value</code>:
+	 * <ul>
+	 * <li><code>clients</code> - number of clients (100)</li>
+	 * <li><code>rate</code> - messages per second of each client (10)</li>
+	 * <li><code>duration</code> - seconds of sending (10)</li>
+	 * <li><code>mix</code> - comma separated <code>weight:size</code>
+	 * pairs (<code>1:64</code>)</li>
+	 * <li><code>serialize</code> - should packets be serialized (true)</li>
+	 * <li><code>output</code> - JSON report file (standard output)</li>
+	 * </ul>
+	 */
+	public static void main(String[] args) throws IOException, NetworkException {
+		int clients = 100;
+		double rate = 10;
+		long duration = 10;
+		String mixSpec = "1:64";
+		boolean serialize = true;
+		String output = null;
+		
+		for (int i = 0; i < args.length; ++i) {
+			final int eq = args[i].indexOf('=');
+			
+			if (eq == -1) {
+				throw new IllegalArgumentException("expected name=value, got: " + args[i]);
+			}
+			
+			final String name = args[i].substring(0, eq);
+			final String value = args[i].substring(eq + 1);
+			
+			if (name.equals("clients")) {
+				clients = Integer.parseInt(value);
+			} else if (name.equals("rate")) {
+				rate = Double.valueOf(value).doubleValue();
+			} else if (name.equals("duration")) {
+				duration = Long.parseLong(value);
+			} else if (name.equals("mix")) {
+				mixSpec = value;
+			} else if (name.equals("serialize")) {
+				serialize = value.equals("true");
+			} else if (name.equals("output")) {
+				output = value;
+			} else {
+				throw new IllegalArgumentException("unknown argument: " + name);
+			}
+		}
+		
+		final LoopbackServer server = new LoopbackServer();
+		final EchoListener echo = new EchoListener();
+		server.setSerializing(serialize);
+		server.addConnectionListener(echo);
+		server.open(0);
+		
+		final LoadGenerator generator = new LoadGenerator(new ClientFactory() {
+			public Client createClient() {
+				return new LoopbackClient();
+			}
+		}, "localhost", server.getPort());
+		
+		generator.setClientCount(clients);
+		generator.setRate(rate);
+		generator.setDuration(duration * 1000);
+		generator.setMessageMix(parseMix(mixSpec));
+		generator.addDispatchable(server);
+		generator.setEchoListener(echo);
+		
+		final LoadReport report = generator.run();
+		server.close();
+		
+		final Writer out = output != null ? new FileWriter(output) : new OutputStreamWriter(System.out);
+		
+		try {
+			report.writeJson(out);
+		} finally {
+			if (output != null) {
+				out.close();
+			}
+		}
+	}
+	
+	private static MessageMix parseMix(String spec) {
+		final MessageMix mix = new MessageMix();
+		int start = 0;
+		
+		while (start < spec.length()) {
+			int end = spec.indexOf(',', start);
+			
+			if (end == -1) {
+				end = spec.length();
+			}
+			
+			final String entry = spec.substring(start, end);
+			final int colon = entry.indexOf(':');
+			
+			if (colon == -1) {
+				throw new IllegalArgumentException("expected weight:size, got: " + entry);
+			}
+			
+			mix.add(Integer.parseInt(entry.substring(0, colon)), Integer.parseInt(entry.substring(colon + 1)));
+			start = end + 1;
+		}
+		
+		return mix;
+	}
+	
+	/**
+	 * Runs the load test. Clients are connected, then they send for the
+	 * configured duration, then the generator waits for missing echoes
+	 * at most the drain timeout and disconnects all clients.
+	 * 
+	 * @return Results of the test.
+	 */
+	public LoadReport run() {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final MessageMix messages;
+		
+		if (mix != null && !mix.isEmpty()) {
+			messages = mix;
+		} else {
+			messages = new MessageMix();
+			messages.add(1, 64);
+		}
+		
+		final EchoTracker tracker = new EchoTracker(clientCount, latency);
+		final LoadReport report = new LoadReport();
+		report.clients = clientCount;
+		report.rate = rate;
+		report.latency = latency;
+		
+		final int echoErrors = echo != null ? echo.getErrors() : 0;
+		
+		// connecting
+		
+		final Client[] clients = new Client[clientCount];
+		
+		for (int i = 0; i < clientCount; ++i) {
+			final Client client = factory.createClient();
+			client.addPacketListener(tracker);
+			
+			try {
+				client.connect(host, port);
+				clients[i] = client;
+			} catch (NetworkException e) {
+				++report.connectErrors;
+			}
+		}
+		
+		// sending
+		
+		final long interval = (long) (1000000000.0 / rate);
+		final long start = System.nanoTime();
+		final long end = start + duration * 1000000L;
+		final long[] first = new long[clientCount];
+		final int[] sequence = new int[clientCount];
+		
+		for (int i = 0; i < clientCount; ++i) {
+			// spread clients evenly over the first interval
+			first[i] = start + interval * i / clientCount;
+		}
+		
+		long now;
+		
+		while ((now = System.nanoTime()) < end) {
+			boolean busy = false;
+			
+			for (int i = 0; i < clientCount; ++i) {
+				if (clients[i] == null) {
+					continue;
+				}
+				
+				final long intended = first[i] + sequence[i] * interval;
+				
+				if (intended > now) {
+					continue;
+				}
+				
+				if (System.nanoTime() >= end) {
+					break;
+				}
+				
+				try {
+					clients[i].send(new LoadMessage(i, sequence[i], intended, messages.pick(random)));
+					++report.sent;
+				} catch (NetworkException e) {
+					++report.sendErrors;
+					
+					if (!clients[i].isConnected()) {
+						clients[i] = null;
+					}
+					
+					// retry on next pass with the same intended time
+					continue;
+				} catch (NotSerializableException e) {
+					// never echoed, recorded with the lost ones
+					++report.sendErrors;
+					++report.dropped;
+				}
+				
+				++sequence[i];
+				busy = true;
+			}
+			
+			if (dispatch(clients) > 0) {
+				busy = true;
+			}
+			
+			if (!busy) {
+				Thread.yield();
+			}
+		}
+		
+		report.duration = (now - start) / 1000000L;
+		
+		// draining
+		
+		final long drainEnd = System.nanoTime() + drainTimeout * 1000000L;
+		
+		while (tracker.getReceived() < report.sent && System.nanoTime() < drainEnd) {
+			if (dispatch(clients) == 0) {
+				Thread.yield();
+			}
+		}
+		
+		final long drained = System.nanoTime();
+		
+		tracker.close();
+		report.received = tracker.getReceived();
+		report.elapsed = (drained - start) / 1000000L;
+		
+		if (echo != null) {
+			report.echoErrors = echo.getErrors() - echoErrors;
+		}
+		
+		// messages that never came back count as waiting until the end of draining
+		
+		for (int i = 0; i < clientCount; ++i) {
+			for (int k = tracker.nextMissing(i, 0); k < sequence[i]; k = tracker.nextMissing(i, k + 1)) {
+				latency.record((drained - (first[i] + k * interval)) / 1000);
+			}
+		}
+		
+		// messages that should have been sent count as waiting until the end of sending
+		
+		for (int i = 0; i < clientCount; ++i) {
+			if (clients[i] == null) {
+				continue;
+			}
+			
+			for (long t = first[i] + sequence[i] * interval; t < end; t += interval) {
+				latency.record((now - t) / 1000);
+				++report.unsent;
+			}
+		}
+		
+		for (int i = 0; i < clientCount; ++i) {
+			if (clients[i] != null) {
+				clients[i].disconnect();
+			}
+		}
+		
+		dispatch(clients);
+		
+		return report;
+	}
+	
+	/**
+	 * Sets number of clients to connect.
+	 */
+	public void setClientCount(int clientCount) {
+		if (clientCount < 1) {
+			throw new IllegalArgumentException("clientCount must be positive");
+		}
+		
+		this.clientCount = clientCount;
+	}
+	
+	/**
+	 * Sets how long to wait for missing echoes after sending.
+	 * 
+	 * @param drainTimeout Time in milliseconds.
+	 */
+	public void setDrainTimeout(long drainTimeout) {
+		this.drainTimeout = drainTimeout;
+	}
+	
+	/**
+	 * Sets how long clients should send.
+	 * 
+	 * @param duration Time in milliseconds.
+	 */
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+	
+	/**
+	 * Sets the echo listener of the tested server, if it runs in the same
+	 * JVM, so that messages it failed to echo are reported.
+	 */
+	public void setEchoListener(EchoListener echo) {
+		this.echo = echo;
+	}
+	
+	/**
+	 * Sets the mix of sent messages. By default all messages have 64 bytes
+	 * of payload.
+	 */
+	public void setMessageMix(MessageMix mix) {
+		this.mix = mix;
+	}
+	
+	/**
+	 * Sets the target rate of each client.
+	 * 
+	 * @param rate Messages per second.
+	 */
+	public void setRate(double rate) {
+		if (rate <= 0) {
+			throw new IllegalArgumentException("rate must be positive");
+		}
+		
+		this.rate = rate;
+	}
+	
+	/**
+	 * Records latencies of echoed messages and remembers which of them
+	 * came back, so that the missing ones can be recorded at the end.
+	 */
+	private static class EchoTracker implements PacketListener {
+		
+		/** Sequence numbers of echoed messages of each client */
+		private final BitSet[] echoed;
+		
+		/** Set when echoes are no longer awaited */
+		private boolean closed;
+		
+		private final LatencyHistogram latency;
+		
+		/** Number of echoed messages */
+		private long received;
+		
+		EchoTracker(int clientCount, LatencyHistogram latency) {
+			this.latency = latency;
+			
+			echoed = new BitSet[clientCount];
+			
+			for (int i = 0; i < clientCount; ++i) {
+				echoed[i] = new BitSet();
+			}
+		}
+		
+		synchronized void close() {
+			closed = true;
+		}
+		
+		synchronized long getReceived() {
+			return received;
+		}
+		
+		/**
+		 * Returns the first sequence number from <code>from</code> up
+		 * whose message has not been echoed.
+		 */
+		synchronized int nextMissing(int client, int from) {
+			return echoed[client].nextClearBit(from);
+		}
+		
+		public void packetReceived(Object data) {
+			if (!(data instanceof LoadMessage)) {
+				return;
+			}
+			
+			final long nanos = System.nanoTime();
+			final LoadMessage message = (LoadMessage) data;
+			final int client = message.getClient();
+			
+			synchronized (this) {
+				if (closed || client < 0 || client >= echoed.length || echoed[client].get(message.getSequence())) {
+					return;
+				}
+				
+				echoed[client].set(message.getSequence());
+				++received;
+			}
+			
+			latency.record((nanos - message.getIntendedTime()) / 1000);
+		}
+	}
+}
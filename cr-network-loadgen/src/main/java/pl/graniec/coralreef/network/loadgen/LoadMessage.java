@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loadgen;
+
+import java.io.Serializable;
+
+/**
+ * Packet sent by {@link LoadGenerator} and echoed back by
+ * {@link EchoListener}.
+ */
+public class LoadMessage implements Serializable {
+
+	private static final long serialVersionUID = -6284471520917938805L;
+
+	/** Index of the sending client within the generator */
+	private final int client;
+	
+	/** Time in nanoseconds when this message was scheduled to be sent */
+	private final long intendedTime;
+	
+	/** Padding that gives the message its size */
+	private final byte[] payload;
+	
+	/** Number of this message among messages of the same client */
+	private final int sequence;
+	
+	public LoadMessage(int client, int sequence, long intendedTime, byte[] payload) {
+		this.client = client;
+		this.sequence = sequence;
+		this.intendedTime = intendedTime;
+		this.payload = payload;
+	}
+	
+	/**
+	 * Returns the index of the sending client within the generator.
+	 */
+	public int getClient() {
+		return client;
+	}
+	
+	/**
+	 * Returns the time in nanoseconds when this message was scheduled to
+	 * be sent. It is not the time of actual sending, which could be
+	 * later if the generator was late.
+	 */
+	public long getIntendedTime() {
+		return intendedTime;
+	}
+	
+	public byte[] getPayload() {
+		return payload;
+	}
+	
+	/**
+	 * Returns the number of this message among messages of the same
+	 * client, starting from <code>0</code>.
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+}
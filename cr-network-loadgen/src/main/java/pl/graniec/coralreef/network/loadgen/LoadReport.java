@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loadgen;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Results of a {@link LoadGenerator} run. Latencies are in microseconds.
+ */
+public class LoadReport {
+
+	/** Number of clients that were asked to connect */
+	int clients;
+	
+	/** Number of clients that failed to connect */
+	int connectErrors;
+	
+	/** Number of messages given up because they could not be serialized */
+	long dropped;
+	
+	/** Time spent on sending in milliseconds */
+	long duration;
+	
+	/** Number of messages the server failed to echo */
+	int echoErrors;
+	
+	/** Time spent on sending and waiting for echoes in milliseconds */
+	long elapsed;
+	
+	/** End-to-end latencies */
+	LatencyHistogram latency;
+	
+	/** Target rate of each client in messages per second */
+	double rate;
+	
+	/** Number of echoed messages */
+	long received;
+	
+	/** Number of messages that could not be sent */
+	long sendErrors;
+	
+	/** Number of sent messages */
+	long sent;
+	
+	/** Number of messages that were due but not sent when sending ended */
+	long unsent;
+	
+	LoadReport() {
+	}
+	
+	public int getClients() {
+		return clients;
+	}
+	
+	public int getConnectErrors() {
+		return connectErrors;
+	}
+	
+	/**
+	 * Returns number of messages that were given up because they could not
+	 * be serialized. They are included in {@link #getSendErrors()}.
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+	
+	/**
+	 * Returns time spent on sending in milliseconds.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+	
+	/**
+	 * Returns number of messages the server failed to echo, if its
+	 * {@link EchoListener} was given to the generator.
+	 * 
+	 * @see LoadGenerator#setEchoListener(EchoListener)
+	 */
+	public int getEchoErrors() {
+		return echoErrors;
+	}
+	
+	/**
+	 * Returns time spent on sending and waiting for echoes in milliseconds.
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+	
+	/**
+	 * Returns histogram of end-to-end latencies in microseconds, measured
+	 * from the intended sending time. Messages that were not sent at all
+	 * are included with the time they have waited until end of sending.
+	 * Messages that were sent or dropped but never echoed are included
+	 * with the time they have waited until end of waiting for echoes.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+	
+	/**
+	 * Returns number of sent messages that were never echoed back.
+	 */
+	public long getLost() {
+		return sent - received;
+	}
+	
+	public long getReceived() {
+		return received;
+	}
+	
+	/**
+	 * Returns number of failed send attempts. Messages are retried, so
+	 * this is not the number of lost messages.
+	 */
+	public long getSendErrors() {
+		return sendErrors;
+	}
+	
+	public long getSent() {
+		return sent;
+	}
+	
+	/**
+	 * Returns number of echoed messages per second, over the whole time
+	 * including waiting for echoes after sending.
+	 */
+	public double getThroughput() {
+		return elapsed == 0 ? 0 : received * 1000.0 / elapsed;
+	}
+	
+	/**
+	 * Returns number of messages that were due but not sent when sending
+	 * ended.
+	 */
+	public long getUnsent() {
+		return unsent;
+	}
+	
+	/**
+	 * Returns the report as JSON object.
+	 */
+	public String toJson() {
+		final StringBuffer buf = new StringBuffer();
+		
+		buf.append("{\n");
+		buf.append("  \"clients\": ").append(clients).append(",\n");
+		buf.append("  \"connect_errors\": ").append(connectErrors).append(",\n");
+		buf.append("  \"target_rate_per_client\": ").append(rate).append(",\n");
+		buf.append("  \"duration_ms\": ").append(duration).append(",\n");
+		buf.append("  \"elapsed_ms\": ").append(elapsed).append(",\n");
+		buf.append("  \"sent\": ").append(sent).append(",\n");
+		buf.append("  \"received\": ").append(received).append(",\n");
+		buf.append("  \"lost\": ").append(getLost()).append(",\n");
+		buf.append("  \"unsent\": ").append(unsent).append(",\n");
+		buf.append("  \"dropped\": ").append(dropped).append(",\n");
+		buf.append("  \"send_errors\": ").append(sendErrors).append(",\n");
+		buf.append("  \"echo_errors\": ").append(echoErrors).append(",\n");
+		buf.append("  \"throughput_per_second\": ").append(getThroughput()).append(",\n");
+		buf.append("  \"latency_us\": {\n");
+		buf.append("    \"min\": ").append(latency.getMin()).append(",\n");
+		buf.append("    \"mean\": ").append(latency.getMean()).append(",\n");
+		buf.append("    \"p50\": ").append(latency.getPercentile(50)).append(",\n");
+		buf.append("    \"p90\": ").append(latency.getPercentile(90)).append(",\n");
+		buf.append("    \"p99\": ").append(latency.getPercentile(99)).append(",\n");
+		buf.append("    \"p99_9\": ").append(latency.getPercentile(99.9)).append(",\n");
+		buf.append("    \"max\": ").append(latency.getMax()).append("\n");
+		buf.append("  }\n");
+		buf.append("}\n");
+		
+		return buf.toString();
+	}
+	
+	/**
+	 * Writes the report as JSON object.
+	 */
+	public void writeJson(Writer out) throws IOException {
+		out.write(toJson());
+		out.flush();
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loadgen;
+
+import java.util.Random;
+
+/**
+ * Weighted set of message sizes sent by {@link LoadGenerator}.
+ * 
+ * <pre>
+ * MessageMix mix = new MessageMix();
+ * mix.add(90, 32);   // 90% of small messages
+ * mix.add(10, 4096); // 10% of big messages
+ * </pre>
+ */
+public class MessageMix {
+
+	/** Payload of each kind, shared by all messages of that kind */
+	private byte[][] payloads = new byte[0][];
+	
+	/** Sum of weights of all kinds */
+	private int totalWeight;
+	
+	/** Weight of each kind */
+	private int[] weights = new int[0];
+	
+	/**
+	 * Adds a kind of messages.
+	 * 
+	 * @param weight Relative frequency of this kind.
+	 * @param payloadSize Payload size in bytes.
+	 */
+	public void add(int weight, int payloadSize) {
+		if (weight <= 0 || payloadSize < 0) {
+			throw new IllegalArgumentException("weight must be positive and payloadSize not negative");
+		}
+		
+		final int n = weights.length;
+		final int[] newWeights = new int[n + 1];
+		final byte[][] newPayloads = new byte[n + 1][];
+		
+		System.arraycopy(weights, 0, newWeights, 0, n);
+		System.arraycopy(payloads, 0, newPayloads, 0, n);
+		
+		newWeights[n] = weight;
+		newPayloads[n] = new byte[payloadSize];
+		
+		weights = newWeights;
+		payloads = newPayloads;
+		totalWeight += weight;
+	}
+	
+	/**
+	 * Tells if no kind of messages was added.
+	 */
+	public boolean isEmpty() {
+		return weights.length == 0;
+	}
+	
+	/**
+	 * Picks a payload of randomly chosen kind.
+	 */
+	byte[] pick(Random random) {
+		int r = random.nextInt(totalWeight);
+		
+		for (int i = 0; i < weights.length; ++i) {
+			r -= weights[i];
+			
+			if (r < 0) {
+				return payloads[i];
+			}
+		}
+		
+		throw new IllegalStateException("empty message mix");
+	}
+}
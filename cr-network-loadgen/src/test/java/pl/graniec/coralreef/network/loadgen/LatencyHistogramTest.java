@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loadgen;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+	private LatencyHistogram histogram;
+	
+	protected void setUp() {
+		histogram = new LatencyHistogram();
+	}
+	
+	/**
+	 * Returns the highest value of the bucket of given value. A bigger
+	 * value is recorded too, so that the result is not capped by the
+	 * maximum.
+	 */
+	private long roundTrip(long value) {
+		histogram.reset();
+		histogram.record(value);
+		histogram.record(LatencyHistogram.MAX_VALUE);
+		
+		return histogram.getPercentile(50);
+	}
+	
+	public void testEmpty() {
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getMax());
+	}
+	
+	public void testExactBelow128() {
+		for (long v = 0; v < 128; ++v) {
+			assertEquals(v, roundTrip(v));
+		}
+		
+		histogram.reset();
+		
+		for (long v = 0; v < 128; ++v) {
+			histogram.record(v);
+		}
+		
+		for (int v = 0; v < 128; ++v) {
+			// rank of v is v + 1 out of 128
+			assertEquals(v, histogram.getPercentile((v + 1) * 100.0 / 128));
+		}
+	}
+	
+	public void testLinearBoundary() {
+		histogram.record(127);
+		histogram.record(128);
+		histogram.record(129);
+		
+		assertEquals(127, histogram.getPercentile(33));
+		assertEquals(129, histogram.getPercentile(66));
+		assertEquals(129, histogram.getPercentile(100));
+		
+		// 128 and 129 share the first bucket that is two wide
+		assertEquals(127, roundTrip(127));
+		assertEquals(129, roundTrip(128));
+		assertEquals(129, roundTrip(129));
+		assertEquals(131, roundTrip(130));
+	}
+	
+	public void testRelativeError() {
+		for (long v = 128; v < LatencyHistogram.MAX_VALUE; v = v * 3 / 2 + 1) {
+			// bucket bound must not be below the value nor too far above it
+			final long reported = roundTrip(v);
+			
+			assertTrue("value " + v, reported >= v);
+			assertTrue("value " + v, (reported - v) * 64 < v);
+		}
+	}
+	
+	public void testClamping() {
+		histogram.record(LatencyHistogram.MAX_VALUE + 1000);
+		histogram.record(Long.MAX_VALUE);
+		histogram.record(-5);
+		
+		assertEquals(3, histogram.getCount());
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getPercentile(100));
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getPercentile(1));
+	}
+	
+	public void testPercentileRanks() {
+		for (long v = 1; v <= 100; ++v) {
+			histogram.record(v);
+		}
+		
+		assertEquals(100, histogram.getCount());
+		assertEquals(50, histogram.getPercentile(50));
+		assertEquals(99, histogram.getPercentile(99));
+		assertEquals(100, histogram.getPercentile(99.9));
+		assertEquals(1, histogram.getPercentile(0));
+		assertEquals(1, histogram.getMin());
+		assertEquals(100, histogram.getMax());
+		assertEquals(50.5, histogram.getMean(), 0);
+	}
+	
+	public void testPercentileOfLargeValues() {
+		// 99 fast values and a single slow one
+		for (int i = 0; i < 99; ++i) {
+			histogram.record(1000);
+		}
+		
+		histogram.record(1000000);
+		
+		final long p50 = histogram.getPercentile(50);
+		final long p99 = histogram.getPercentile(99);
+		
+		assertTrue(p50 >= 1000 && p50 < 1000 + 1000 / 64);
+		assertEquals(p50, p99);
+		assertEquals(1000000, histogram.getPercentile(99.5));
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loadgen;
+
+import junit.framework.TestCase;
+
+import pl.graniec.coralreef.network.client.Client;
+import pl.graniec.coralreef.network.client.ClientFactory;
+import pl.graniec.coralreef.network.loopback.LoopbackClient;
+import pl.graniec.coralreef.network.loopback.LoopbackServer;
+
+public class LoadGeneratorTest extends TestCase {
+
+	private static final long DURATION = 300;
+	
+	private LoopbackServer server;
+	
+	private LoadGenerator generator;
+	
+	protected void setUp() throws Exception {
+		server = new LoopbackServer();
+		server.open(0);
+		
+		generator = new LoadGenerator(new ClientFactory() {
+			public Client createClient() {
+				return new LoopbackClient();
+			}
+		}, "localhost", server.getPort());
+		
+		generator.setClientCount(5);
+		generator.setRate(100);
+		generator.setDuration(DURATION);
+		generator.addDispatchable(server);
+	}
+	
+	protected void tearDown() {
+		server.close();
+	}
+	
+	public void testEchoed() {
+		final EchoListener echo = new EchoListener();
+		
+		server.addConnectionListener(echo);
+		generator.setEchoListener(echo);
+		
+		final LoadReport report = generator.run();
+		
+		assertEquals(5, report.getClients());
+		assertEquals(0, report.getConnectErrors());
+		assertTrue(report.getSent() > 0);
+		assertEquals(report.getSent(), report.getReceived());
+		assertEquals(0, report.getLost());
+		assertEquals(0, report.getEchoErrors());
+		assertEquals(report.getSent() + report.getUnsent(), report.getLatency().getCount());
+		assertTrue(report.getDuration() >= DURATION && report.getDuration() < DURATION * 2);
+		assertEquals(0, server.getClientCount());
+	}
+	
+	public void testNotEchoed() {
+		generator.setDrainTimeout(100);
+		
+		final LoadReport report = generator.run();
+		
+		assertTrue(report.getSent() > 0);
+		assertEquals(0, report.getReceived());
+		assertEquals(report.getSent(), report.getLost());
+		
+		// lost messages are recorded with the time they have waited
+		assertEquals(report.getSent() + report.getUnsent(), report.getLatency().getCount());
+		assertTrue(report.getLatency().getMin() >= 100 * 1000);
+	}
+}
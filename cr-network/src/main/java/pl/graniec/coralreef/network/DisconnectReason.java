@@ -48,6 +48,11 @@ public class DisconnectReason {
 	 */
 	public final static int UserAction = 2;
 	
+	/**
+	 * Server is shutting down.
+	 */
+	public final static int Shutdown = 3;
+	
 	private DisconnectReason() {
 	}
 }
@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.capture;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+
+import pl.graniec.coralreef.network.frame.Varint;
+import pl.graniec.coralreef.network.server.RemoteClient;
+
+/**
+ * Reads records of a capture written by {@link CaptureWriter}, one by
+ * one.
+ * 
+ * <pre>
+ * while (reader.next()) {
+ *     // use reader.getType(), reader.getClientId(), ...
+ * }
+ * </pre>
+ */
+public class CaptureReader {
+
+	/** Default maximum size of a packet record */
+	public static final int DEFAULT_MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+	/** Identifier of client of current record */
+	private int clientId;
+	
+	/** Serialized packet of current record or <code>null</code> */
+	private byte[] data;
+	
+	/** Capture stream */
+	private final DataInputStream in;
+	
+	/** Maximum size of packet record */
+	private int maxRecordSize = DEFAULT_MAX_RECORD_SIZE;
+	
+	/** Time when the capture has started */
+	private final long startTime;
+	
+	/** Time of current record */
+	private long time;
+	
+	/** Type of current record or <code>-1</code> */
+	private int type = -1;
+	
+	/**
+	 * Opens a capture file.
+	 * 
+	 * @param fileName Name of capture file.
+	 * 
+	 * @throws IOException When file cannot be read or it is not a capture.
+	 */
+	public CaptureReader(String fileName) throws IOException {
+		this(new BufferedInputStream(new FileInputStream(fileName), 64 * 1024));
+	}
+	
+	/**
+	 * Starts reading a capture from given stream.
+	 * 
+	 * @param in Capture stream.
+	 * 
+	 * @throws IOException When stream cannot be read or it is not
+	 * a capture.
+	 */
+	public CaptureReader(InputStream in) throws IOException {
+		this.in = new DataInputStream(in);
+		
+		final byte[] magic = new byte[CaptureWriter.MAGIC.length];
+		this.in.readFully(magic);
+		
+		for (int i = 0; i < magic.length; ++i) {
+			if (magic[i] != CaptureWriter.MAGIC[i]) {
+				throw new IOException("not a traffic capture");
+			}
+		}
+		
+		final int version = this.in.readUnsignedByte();
+		
+		if (version != CaptureWriter.VERSION) {
+			throw new IOException("unsupported capture version: " + version);
+		}
+		
+		startTime = this.in.readLong();
+		time = startTime;
+	}
+	
+	/**
+	 * Closes the capture stream.
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+	
+	/**
+	 * Returns the identifier of client of current record, as given by
+	 * {@link RemoteClient#getId()} of the captured server.
+	 */
+	public int getClientId() {
+		return clientId;
+	}
+	
+	/**
+	 * Returns the serialized packet of current record.
+	 * 
+	 * @return Packet bytes or <code>null</code> if this is not a packet
+	 * record.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+	
+	/**
+	 * Deserializes the packet of current record.
+	 * 
+	 * @return Packet object or <code>null</code> if this is not a packet
+	 * record.
+	 * 
+	 * @throws ClassNotFoundException When packet class is not available.
+	 * @throws IOException When packet cannot be deserialized.
+	 */
+	public Object getObject() throws ClassNotFoundException, IOException {
+		if (data == null) {
+			return null;
+		}
+		
+		return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+	}
+	
+	/**
+	 * Returns the maximum size of a packet record.
+	 * 
+	 * @see #setMaxRecordSize(int)
+	 */
+	public int getMaxRecordSize() {
+		return maxRecordSize;
+	}
+	
+	/**
+	 * Returns the time when the capture has started in milliseconds
+	 * since the epoch.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+	
+	/**
+	 * Returns the time of current record in milliseconds since the epoch.
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * Returns the type of current record.
+	 * 
+	 * @return Type from {@link RecordType} or <code>-1</code> if there is
+	 * no current record.
+	 */
+	public int getType() {
+		return type;
+	}
+	
+	/**
+	 * Moves to the next record.
+	 * 
+	 * @return <code>false</code> if there are no more records.
+	 * 
+	 * @throws EOFException When capture ends in the middle of a record.
+	 * @throws StreamCorruptedException When capture is corrupted or
+	 * a record exceeds the maximum record size.
+	 * @throws IOException When capture cannot be read.
+	 */
+	public boolean next() throws IOException {
+		final int nextType = in.read();
+		
+		if (nextType == -1) {
+			type = -1;
+			data = null;
+			return false;
+		}
+		
+		if (nextType < RecordType.Connected || nextType > RecordType.Disconnected) {
+			throw new StreamCorruptedException("corrupted capture, unknown record type: " + nextType);
+		}
+		
+		type = nextType;
+		time += readVarint();
+		clientId = readVarint();
+		
+		if (type == RecordType.Received || type == RecordType.Sent) {
+			final int size = readVarint();
+			
+			if (size > maxRecordSize) {
+				throw new StreamCorruptedException(
+						"corrupted capture, record of " + size + " bytes exceeds limit of " + maxRecordSize + " bytes"
+				);
+			}
+			
+			data = new byte[size];
+			in.readFully(data);
+		} else {
+			data = null;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Sets the maximum size of a packet record. Bigger records are
+	 * treated as corruption, so a damaged capture cannot make the reader
+	 * allocate huge buffers. Default is {@link #DEFAULT_MAX_RECORD_SIZE}.
+	 * 
+	 * @param maxRecordSize Size in bytes.
+	 */
+	public void setMaxRecordSize(int maxRecordSize) {
+		if (maxRecordSize < 0) {
+			throw new IllegalArgumentException("maxRecordSize cannot be negative");
+		}
+		
+		this.maxRecordSize = maxRecordSize;
+	}
+	
+	private int readVarint() throws IOException {
+		final int value = Varint.read(in);
+		
+		if (value == -1) {
+			throw new EOFException("capture ended in the middle of a record");
+		}
+		
+		return value;
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import pl.graniec.coralreef.network.frame.Varint;
+import pl.graniec.coralreef.network.server.RemoteClient;
+import pl.graniec.coralreef.network.server.Server;
+import pl.graniec.coralreef.network.server.TrafficRecorder;
+
+/**
+ * Traffic recorder that writes everything what happens on a
+ * {@link Server} into an append-only capture, which can be read back by
+ * {@link CaptureReader}.
+ * <p>
+ * Capture starts with a header: magic bytes <code>CRCP</code>, format
+ * version byte and start time in milliseconds. Each record is then
+ * made of record type byte, varint milliseconds since the previous
+ * record, varint client identifier and, for packet records, the
+ * serialized packet as a length-prefixed frame.
+ * <p>
+ * Packets already serialized by the transport are written as they are,
+ * others are serialized by the recorder on the calling thread, before
+ * the capture is locked. Packets that cannot be serialized are skipped.
+ * Failures never reach the server: when writing fails then the recorder
+ * stops and the error can be obtained by {@link #getError()}.
+ * 
+ * @see Server#setTrafficRecorder(TrafficRecorder)
+ * @see ReplayDriver
+ */
+public class CaptureWriter implements TrafficRecorder {
+
+	/** Magic bytes that start every capture */
+	static final byte[] MAGIC = { 'C', 'R', 'C', 'P' };
+	
+	/** Version of capture format */
+	static final int VERSION = 1;
+	
+	/** Set after closing */
+	private boolean closed;
+	
+	/** First error that stopped recording */
+	private IOException error;
+	
+	/** Time of the last record */
+	private long lastTime;
+	
+	/** Capture stream */
+	private final DataOutputStream out;
+	
+	/** Number of packets that could not be serialized */
+	private int skipped;
+	
+	/** Scratch buffer for varints */
+	private final byte[] varint = new byte[Varint.MAX_SIZE];
+	
+	/**
+	 * Creates a new capture file, replacing existing one.
+	 * 
+	 * @param fileName Name of capture file.
+	 * 
+	 * @throws IOException When file cannot be created.
+	 */
+	public CaptureWriter(String fileName) throws IOException {
+		this(new BufferedOutputStream(new FileOutputStream(fileName), 64 * 1024));
+	}
+	
+	/**
+	 * Creates a new capture on given stream. Stream should be buffered
+	 * because records are written in small pieces.
+	 * 
+	 * @param out Target stream.
+	 * 
+	 * @throws IOException When header cannot be written.
+	 */
+	public CaptureWriter(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(out);
+		
+		lastTime = System.currentTimeMillis();
+		
+		this.out.write(MAGIC);
+		this.out.writeByte(VERSION);
+		this.out.writeLong(lastTime);
+	}
+	
+	public void clientConnected(RemoteClient client) {
+		write(RecordType.Connected, client, null);
+	}
+	
+	public void clientDisconnected(RemoteClient client) {
+		write(RecordType.Disconnected, client, null);
+	}
+	
+	/**
+	 * Flushes and closes the capture. Recorder should be removed from the
+	 * server before, further events are ignored.
+	 */
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		
+		closed = true;
+		out.close();
+	}
+	
+	/**
+	 * Flushes recorded data to the underlying stream.
+	 */
+	public synchronized void flush() throws IOException {
+		out.flush();
+	}
+	
+	/**
+	 * Returns an error that has stopped recording.
+	 * 
+	 * @return Error or <code>null</code> if recording is fine.
+	 */
+	public synchronized IOException getError() {
+		return error;
+	}
+	
+	/**
+	 * Returns number of packets skipped because they could not be
+	 * serialized.
+	 */
+	public synchronized int getSkippedCount() {
+		return skipped;
+	}
+	
+	public void packetReceived(RemoteClient client, Object data, byte[] serialized) {
+		writePacket(RecordType.Received, client, data, serialized);
+	}
+	
+	public void packetSent(RemoteClient client, Object data, byte[] serialized) {
+		writePacket(RecordType.Sent, client, data, serialized);
+	}
+	
+	private static byte[] serialize(Object data) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream objects = new ObjectOutputStream(bytes);
+		
+		objects.writeObject(data);
+		objects.close();
+		
+		return bytes.toByteArray();
+	}
+	
+	private synchronized void write(int type, RemoteClient client, byte[] payload) {
+		if (closed || error != null) {
+			return;
+		}
+		
+		try {
+			final long now = System.currentTimeMillis();
+			final long delta = Math.min(Math.max(now - lastTime, 0), Integer.MAX_VALUE);
+			
+			lastTime += delta;
+			
+			out.writeByte(type);
+			writeVarint((int) delta);
+			writeVarint(client.getId());
+			
+			if (payload != null) {
+				writeVarint(payload.length);
+				out.write(payload);
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+	
+	private void writePacket(int type, RemoteClient client, Object data, byte[] serialized) {
+		byte[] payload = serialized;
+		
+		if (payload == null) {
+			try {
+				payload = serialize(data);
+			} catch (IOException e) {
+				synchronized (this) {
+					++skipped;
+				}
+				
+				return;
+			}
+		}
+		
+		write(type, client, payload);
+	}
+	
+	private void writeVarint(int value) throws IOException {
+		out.write(varint, 0, Varint.encode(value, varint, 0));
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.capture;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import pl.graniec.coralreef.network.client.Client;
+import pl.graniec.coralreef.network.client.ClientFactory;
+import pl.graniec.coralreef.network.exceptions.NetworkException;
+
+/**
+ * Replays a traffic capture against a server. For every client from the
+ * capture a new {@link Client} is created and connected, then it sends
+ * the same packets that were received by the captured server. Packets
+ * sent by the captured server are skipped, the replayed server
+ * produces its own.
+ * <p>
+ * Records can be replayed at the original pace or as fast as possible.
+ * Driver can run on its own thread by {@link #run()} or it can be
+ * stepped from existing loop by {@link #step()}, which is the way to
+ * go with clients that need dispatching.
+ */
+public class ReplayDriver {
+
+	/** Maximum number of records replayed by a single step when not paced */
+	public static final int BATCH_SIZE = 256;
+	
+	/** Replayed clients by captured identifier */
+	private final Hashtable clients = new Hashtable();
+	
+	/** Creates replayed clients */
+	private final ClientFactory factory;
+	
+	/** Set when all records were replayed */
+	private boolean finished;
+	
+	/** Time of the first record */
+	private long firstTime;
+	
+	/** Host of replayed server */
+	private final String host;
+	
+	/** Should records be replayed at the original pace */
+	private boolean paced = true;
+	
+	/** Set when current record is read but not replayed yet */
+	private boolean pending;
+	
+	/** Port of replayed server */
+	private final int port;
+	
+	/** Capture to replay */
+	private final CaptureReader reader;
+	
+	/** Number of replayed records */
+	private int replayed;
+	
+	/** Time of the first step or <code>-1</code> */
+	private long startedAt = -1;
+	
+	/**
+	 * Creates a new replay driver.
+	 * 
+	 * @param reader Capture to replay.
+	 * @param factory Factory of replayed clients.
+	 * @param host Host of replayed server.
+	 * @param port Port of replayed server.
+	 */
+	public ReplayDriver(CaptureReader reader, ClientFactory factory, String host, int port) {
+		if (reader == null || factory == null) {
+			throw new IllegalArgumentException("reader and factory cannot be null");
+		}
+		
+		this.reader = reader;
+		this.factory = factory;
+		this.host = host;
+		this.port = port;
+	}
+	
+	/**
+	 * Disconnects all clients that are still connected. Should be called
+	 * when replay is abandoned before its end.
+	 */
+	public void close() {
+		for (Enumeration e = clients.elements(); e.hasMoreElements();) {
+			((Client) e.nextElement()).disconnect();
+		}
+		
+		clients.clear();
+	}
+	
+	/**
+	 * Tells how long the next record should wait to keep the original
+	 * pace.
+	 * 
+	 * @return Delay in milliseconds, <code>0</code> if next record is
+	 * due or driver is not paced.
+	 */
+	public long getDelay() {
+		if (!paced || !pending || startedAt == -1) {
+			return 0;
+		}
+		
+		final long due = startedAt + (reader.getTime() - firstTime);
+		
+		return Math.max(due - System.currentTimeMillis(), 0);
+	}
+	
+	/**
+	 * Returns number of records replayed so far.
+	 */
+	public int getReplayedCount() {
+		return replayed;
+	}
+	
+	/**
+	 * Tells if all records were replayed.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	/**
+	 * Tells if records are replayed at the original pace.
+	 * 
+	 * @see #setPaced(boolean)
+	 */
+	public boolean isPaced() {
+		return paced;
+	}
+	
+	private void replay() throws NetworkException, IOException {
+		final Integer id = new Integer(reader.getClientId());
+		final Client client;
+		
+		switch (reader.getType()) {
+			case RecordType.Connected:
+				client = factory.createClient();
+				client.connect(host, port);
+				clients.put(id, client);
+				break;
+			case RecordType.Received:
+				client = (Client) clients.get(id);
+				
+				if (client != null && client.isConnected()) {
+					try {
+						client.send(reader.getObject());
+					} catch (ClassNotFoundException e) {
+						throw new NetworkException("cannot deserialize captured packet", e);
+					}
+				}
+				break;
+			case RecordType.Disconnected:
+				client = (Client) clients.remove(id);
+				
+				if (client != null) {
+					client.disconnect();
+				}
+				break;
+		}
+	}
+	
+	/**
+	 * Replays the whole capture on current thread, sleeping between
+	 * records when paced. Returns earlier if current thread is
+	 * interrupted.
+	 * 
+	 * @throws IOException When capture cannot be read.
+	 * @throws NetworkException When a replayed client fails.
+	 */
+	public void run() throws NetworkException, IOException {
+		try {
+			while (step()) {
+				final long delay = getDelay();
+				
+				if (delay > 0) {
+					Thread.sleep(delay);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Sets if records should be replayed at the original pace. Otherwise
+	 * they are replayed as fast as possible. Default is paced.
+	 */
+	public void setPaced(boolean paced) {
+		this.paced = paced;
+	}
+	
+	/**
+	 * Replays records that are due. When paced these are all records
+	 * up to current time, otherwise at most {@link #BATCH_SIZE} records.
+	 * When capture ends all clients left are disconnected.
+	 * 
+	 * @return <code>false</code> if whole capture has been replayed.
+	 * 
+	 * @throws IOException When capture cannot be read.
+	 * @throws NetworkException When a replayed client fails.
+	 */
+	public boolean step() throws NetworkException, IOException {
+		if (finished) {
+			return false;
+		}
+		
+		final long now = System.currentTimeMillis();
+		
+		for (int n = 0; paced || n < BATCH_SIZE; ++n) {
+			if (!pending) {
+				if (!reader.next()) {
+					finished = true;
+					close();
+					return false;
+				}
+				
+				if (startedAt == -1) {
+					startedAt = now;
+					firstTime = reader.getTime();
+				}
+				
+				pending = true;
+			}
+			
+			if (paced && reader.getTime() - firstTime > now - startedAt) {
+				break;
+			}
+			
+			pending = false;
+			replay();
+			++replayed;
+		}
+		
+		return true;
+	}
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.frame;
+
+import pl.graniec.coralreef.network.exceptions.FrameTooLargeException;
+
+/**
+ * Incremental decoder of length-prefixed frames. Every frame starts with
+ * its payload length written as {@link Varint} and is followed by the
+ * payload itself.
+ * <p>
+ * Decoder can be fed with chunks of any size, as they come from the
+ * network. When whole frame is available in a single chunk then it is
+ * passed to the listener directly from that chunk, otherwise it is
+ * copied exactly once into a buffer of its announced size. That buffer
+ * is allocated only after the length was checked against the maximum
+ * frame size, so a malicious peer cannot force huge allocations.
+ * <p>
+ * Frames longer than the streaming threshold are not collected at all.
+ * They are passed to a {@link StreamingFrameListener} in chunks, straight
+ * from the buffers given to the decoder, so they never need more memory
+ * than the chunks themselves.
+ * <p>
+ * This class is not thread safe.
+ * 
+ * @see FrameWriter
+ */
+public class FrameDecoder {
+
+	private static final byte[] EMPTY = new byte[0];
+	
+	/** Listener of decoded frames */
+	private final FrameListener listener;
+	
+	/** Maximum allowed payload length */
+	private final int maxFrameSize;
+	
+	/** Length of current frame (or its part decoded so far) */
+	private int length;
+	
+	/** Bit shift of the next length prefix byte */
+	private int shift;
+	
+	/** Buffer of partially received frame or <code>null</code> */
+	private byte[] frame;
+	
+	/** Number of bytes already stored in <code>frame</code> or streamed */
+	private int filled;
+	
+	/** Tells if current frame is being streamed */
+	private boolean streaming;
+	
+	/** Payload length above which frames are streamed */
+	private int streamingThreshold = Integer.MAX_VALUE;
+	
+	/**
+	 * Creates a new decoder.
+	 * 
+	 * @param listener Listener that will receive decoded frames.
+	 * @param maxFrameSize Maximum allowed payload length in bytes.
+	 */
+	public FrameDecoder(FrameListener listener, int maxFrameSize) {
+		if (listener == null) {
+			throw new IllegalArgumentException("listener cannot be null");
+		}
+		
+		if (maxFrameSize < 0) {
+			throw new IllegalArgumentException("maxFrameSize cannot be negative");
+		}
+		
+		this.listener = listener;
+		this.maxFrameSize = maxFrameSize;
+	}
+	
+	/**
+	 * Feeds the decoder with next chunk of data. All frames that are
+	 * completed by this chunk are passed to the listener before this
+	 * method returns.
+	 * 
+	 * @param data Buffer with received bytes.
+	 * @param offset Offset of the first received byte.
+	 * @param count Number of received bytes.
+	 * 
+	 * @throws FrameTooLargeException When a frame exceeds the maximum frame
+	 * size or its length prefix is malformed. Decoder must be
+	 * {@link #reset()} before it can be used again.
+	 */
+	public void decode(byte[] data, int offset, int count) throws FrameTooLargeException {
+		final int end = offset + count;
+		
+		while (offset < end) {
+			
+			if (streaming) {
+				final int n = Math.min(length - filled, end - offset);
+				final int start = offset;
+				
+				filled += n;
+				offset += n;
+				
+				((StreamingFrameListener) listener).frameChunk(data, start, n);
+				
+				if (filled == length) {
+					finishStreaming();
+				}
+				
+				continue;
+			}
+			
+			if (frame != null) {
+				final int n = Math.min(length - filled, end - offset);
+				
+				System.arraycopy(data, offset, frame, filled, n);
+				filled += n;
+				offset += n;
+				
+				if (filled == length) {
+					final byte[] complete = frame;
+					
+					frame = null;
+					length = 0;
+					
+					listener.frameReceived(complete, 0, complete.length);
+				}
+				
+				continue;
+			}
+			
+			final int b = data[offset++] & 0xFF;
+			
+			if (!Varint.isValid(shift, b)) {
+				throw new FrameTooLargeException("malformed frame length");
+			}
+			
+			length |= (b & 0x7F) << shift;
+			
+			if (length > maxFrameSize) {
+				throw new FrameTooLargeException(
+						"frame of " + length + " bytes exceeds limit of " + maxFrameSize + " bytes"
+				);
+			}
+			
+			if ((b & 0x80) != 0) {
+				shift += 7;
+				continue;
+			}
+			
+			shift = 0;
+			
+			if (length > streamingThreshold) {
+				streaming = true;
+				filled = 0;
+				
+				((StreamingFrameListener) listener).frameStarted(length);
+				
+				if (length == 0) {
+					finishStreaming();
+				}
+			} else if (end - offset >= length) {
+				// whole frame is here, no need to copy it
+				final int start = offset;
+				final int size = length;
+				
+				offset += size;
+				length = 0;
+				
+				if (size == 0) {
+					listener.frameReceived(EMPTY, 0, 0);
+				} else {
+					listener.frameReceived(data, start, size);
+				}
+			} else {
+				frame = new byte[length];
+				filled = 0;
+			}
+		}
+	}
+	
+	private void finishStreaming() {
+		streaming = false;
+		length = 0;
+		
+		((StreamingFrameListener) listener).frameFinished();
+	}
+	
+	/**
+	 * Returns the maximum allowed payload length.
+	 */
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+	
+	/**
+	 * Returns the payload length above which frames are streamed.
+	 * 
+	 * @see #setStreamingThreshold(int)
+	 */
+	public int getStreamingThreshold() {
+		return streamingThreshold;
+	}
+	
+	/**
+	 * Tells if decoder is in the middle of a frame.
+	 * 
+	 * @return <code>true</code> if some bytes of unfinished frame were
+	 * already decoded.
+	 */
+	public boolean isPartial() {
+		return frame != null || streaming || shift != 0 || length != 0;
+	}
+	
+	/**
+	 * Drops any partially decoded frame. Next byte passed to
+	 * {@link #decode(byte[], int, int)} will be treated as the beginning
+	 * of a new frame.
+	 */
+	public void reset() {
+		frame = null;
+		streaming = false;
+		filled = 0;
+		length = 0;
+		shift = 0;
+	}
+	
+	/**
+	 * Sets the payload length above which frames are passed to the listener
+	 * in chunks instead of as a whole. By default no frames are streamed.
+	 * Frames still must not exceed the maximum frame size.
+	 * 
+	 * @param streamingThreshold Payload length in bytes.
+	 * 
+	 * @throws IllegalArgumentException When threshold is negative or the
+	 * listener is not a {@link StreamingFrameListener}.
+	 */
+	public void setStreamingThreshold(int streamingThreshold) {
+		if (streamingThreshold < 0) {
+			throw new IllegalArgumentException("streamingThreshold cannot be negative");
+		}
+		
+		if (streamingThreshold != Integer.MAX_VALUE && !(listener instanceof StreamingFrameListener)) {
+			throw new IllegalArgumentException("listener must be a StreamingFrameListener");
+		}
+		
+		this.streamingThreshold = streamingThreshold;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.frame;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream over payload of a single frame that is read directly from
+ * the connection stream. Closing it skips the unread rest of the
+ * payload, but never closes the connection stream.
+ */
+class FrameInputStream extends InputStream {
+
+	/** Connection stream */
+	private final InputStream in;
+	
+	/** Bytes of payload not read yet */
+	private int remaining;
+	
+	FrameInputStream(InputStream in, int length) {
+		this.in = in;
+		this.remaining = length;
+	}
+	
+	public int available() throws IOException {
+		return Math.min(remaining, in.available());
+	}
+	
+	public void close() throws IOException {
+		while (remaining > 0) {
+			if (skip(remaining) == 0) {
+				// skip() may refuse to move, read() will tell the truth
+				if (read() == -1) {
+					throw truncated();
+				}
+			}
+		}
+	}
+	
+	private EOFException truncated() {
+		return new EOFException("stream ended " + remaining + " bytes before end of frame");
+	}
+	
+	public int read() throws IOException {
+		if (remaining == 0) {
+			return -1;
+		}
+		
+		final int b = in.read();
+		
+		if (b == -1) {
+			throw truncated();
+		}
+		
+		--remaining;
+		return b;
+	}
+	
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (remaining == 0) {
+			return -1;
+		}
+		
+		final int n = in.read(b, off, Math.min(len, remaining));
+		
+		if (n == -1) {
+			throw truncated();
+		}
+		
+		remaining -= n;
+		return n;
+	}
+	
+	public long skip(long n) throws IOException {
+		final long skipped = in.skip(Math.min(n, remaining));
+		
+		remaining -= (int) skipped;
+		return skipped;
+	}
+}
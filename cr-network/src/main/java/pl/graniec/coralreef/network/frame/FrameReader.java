@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.frame;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+
+import pl.graniec.coralreef.network.PacketListener;
+import pl.graniec.coralreef.network.exceptions.FrameTooLargeException;
+
+/**
+ * Reads length-prefixed frames from a blocking stream and hands them to
+ * a {@link PacketListener}.
+ * <p>
+ * Frames up to the streaming threshold are read into a byte array of
+ * exactly their size, and that array is given to the listener. Bigger
+ * frames are not buffered at all: the listener receives an
+ * {@link InputStream} that reads the payload straight from the
+ * connection, chunk by chunk. Such stream is valid only during the
+ * {@link PacketListener#packetReceived(Object)} call, whatever is left
+ * unread is skipped afterwards. If the listener throws an exception
+ * then it is passed on and the reader cannot be used anymore.
+ * <p>
+ * Underlying stream should be buffered because length prefix is read
+ * byte by byte. This class is not thread safe.
+ * 
+ * @see FrameWriter
+ */
+public class FrameReader {
+
+	/** Set when listener has left a streamed frame unfinished */
+	private boolean broken;
+	
+	/** Connection stream */
+	private final InputStream in;
+	
+	/** Maximum allowed payload length */
+	private final int maxFrameSize;
+	
+	/** Frames bigger than this are streamed */
+	private int streamingThreshold = Integer.MAX_VALUE;
+	
+	/**
+	 * Creates a new frame reader.
+	 * 
+	 * @param in Stream to read frames from.
+	 * @param maxFrameSize Maximum allowed payload length in bytes.
+	 */
+	public FrameReader(InputStream in, int maxFrameSize) {
+		if (in == null) {
+			throw new IllegalArgumentException("in cannot be null");
+		}
+		
+		if (maxFrameSize < 0) {
+			throw new IllegalArgumentException("maxFrameSize cannot be negative");
+		}
+		
+		this.in = in;
+		this.maxFrameSize = maxFrameSize;
+	}
+	
+	/**
+	 * Returns the maximum allowed payload length.
+	 */
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+	
+	/**
+	 * Returns the payload length above which frames are streamed.
+	 * 
+	 * @see #setStreamingThreshold(int)
+	 */
+	public int getStreamingThreshold() {
+		return streamingThreshold;
+	}
+	
+	/**
+	 * Reads next frame and passes it to given listener.
+	 * 
+	 * @param listener Listener that will receive the payload as
+	 * <code>byte[]</code> or as {@link InputStream} for streamed frames.
+	 * 
+	 * @return <code>false</code> if stream has ended cleanly before the
+	 * next frame.
+	 * 
+	 * @throws FrameTooLargeException When frame exceeds the maximum frame
+	 * size or its length prefix is malformed.
+	 * @throws EOFException When stream has ended in the middle of a frame.
+	 * @throws IOException When underlying stream fails or when listener
+	 * has thrown an exception while reading a streamed frame before.
+	 * Reader cannot be used anymore then.
+	 */
+	public boolean readFrame(PacketListener listener) throws FrameTooLargeException, IOException {
+		if (broken) {
+			throw new IOException("listener has failed in the middle of a streamed frame");
+		}
+		
+		final int length = readLength();
+		
+		if (length == -1) {
+			return false;
+		}
+		
+		if (length > streamingThreshold) {
+			final FrameInputStream payload = new FrameInputStream(in, length);
+			
+			// when listener fails the rest of payload stays in the stream
+			broken = true;
+			listener.packetReceived(payload);
+			payload.close();
+			broken = false;
+		} else {
+			final byte[] payload = new byte[length];
+			int filled = 0;
+			
+			while (filled < length) {
+				final int n = in.read(payload, filled, length - filled);
+				
+				if (n == -1) {
+					throw new EOFException("stream ended " + (length - filled) + " bytes before end of frame");
+				}
+				
+				filled += n;
+			}
+			
+			listener.packetReceived(payload);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Reads the length prefix.
+	 * 
+	 * @return Payload length or <code>-1</code> on clean end of stream.
+	 */
+	private int readLength() throws FrameTooLargeException, IOException {
+		final int length;
+		
+		try {
+			length = Varint.read(in);
+		} catch (StreamCorruptedException e) {
+			throw new FrameTooLargeException("malformed frame length", e);
+		}
+		
+		if (length > maxFrameSize) {
+			throw new FrameTooLargeException(
+					"frame of " + length + " bytes exceeds limit of " + maxFrameSize + " bytes"
+			);
+		}
+		
+		return length;
+	}
+	
+	/**
+	 * Sets the payload length above which frames are handed to the listener
+	 * as {@link InputStream} instead of a byte array. By default no frames
+	 * are streamed.
+	 * 
+	 * @param streamingThreshold Payload length in bytes.
+	 */
+	public void setStreamingThreshold(int streamingThreshold) {
+		if (streamingThreshold < 0) {
+			throw new IllegalArgumentException("streamingThreshold cannot be negative");
+		}
+		
+		this.streamingThreshold = streamingThreshold;
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.frame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import pl.graniec.coralreef.network.exceptions.FrameTooLargeException;
+
+/**
+ * Writes frames understood by {@link FrameDecoder} and
+ * {@link FrameReader}: payload length as {@link Varint} followed by the
+ * payload itself.
+ * <p>
+ * This class is not thread safe.
+ */
+public class FrameWriter {
+
+	/** Target stream */
+	private final OutputStream out;
+	
+	/** Maximum allowed payload length */
+	private final int maxFrameSize;
+	
+	/** Scratch buffer for length prefix */
+	private final byte[] prefix = new byte[Varint.MAX_SIZE];
+	
+	/**
+	 * Creates a new frame writer.
+	 * 
+	 * @param out Stream that frames will be written to.
+	 * @param maxFrameSize Maximum allowed payload length in bytes. It should
+	 * match the limit of receiving side.
+	 */
+	public FrameWriter(OutputStream out, int maxFrameSize) {
+		if (out == null) {
+			throw new IllegalArgumentException("out cannot be null");
+		}
+		
+		if (maxFrameSize < 0) {
+			throw new IllegalArgumentException("maxFrameSize cannot be negative");
+		}
+		
+		this.out = out;
+		this.maxFrameSize = maxFrameSize;
+	}
+	
+	/**
+	 * Flushes the underlying stream.
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	/**
+	 * Returns the maximum allowed payload length.
+	 */
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+	
+	/**
+	 * Writes whole array as a single frame.
+	 * 
+	 * @see #writeFrame(byte[], int, int)
+	 */
+	public void writeFrame(byte[] data) throws FrameTooLargeException, IOException {
+		writeFrame(data, 0, data.length);
+	}
+	
+	/**
+	 * Writes a single frame.
+	 * 
+	 * @param data Array that holds the payload.
+	 * @param offset Offset of the first payload byte.
+	 * @param length Payload length in bytes.
+	 * 
+	 * @throws FrameTooLargeException When payload is bigger than the
+	 * maximum frame size. Nothing is written then.
+	 * @throws IOException When underlying stream fails.
+	 */
+	public void writeFrame(byte[] data, int offset, int length) throws FrameTooLargeException, IOException {
+		if (length > maxFrameSize) {
+			throw new FrameTooLargeException(
+					"frame of " + length + " bytes exceeds limit of " + maxFrameSize + " bytes"
+			);
+		}
+		
+		out.write(prefix, 0, Varint.encode(length, prefix, 0));
+		out.write(data, offset, length);
+	}
+}
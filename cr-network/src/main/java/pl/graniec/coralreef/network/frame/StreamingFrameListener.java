@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.frame;
+
+/**
+ * Listener for frames decoded by {@link FrameDecoder} that can also
+ * receive large frames in chunks, as they arrive, instead of having them
+ * collected into a single array.
+ * 
+ * @see FrameDecoder#setStreamingThreshold(int)
+ */
+public interface StreamingFrameListener extends FrameListener {
+
+	/**
+	 * Invoked when the length of a frame above the streaming threshold has
+	 * been decoded. It is followed by zero or more calls to
+	 * {@link #frameChunk(byte[], int, int)} and a single call to
+	 * {@link #frameFinished()}.
+	 * 
+	 * @param length Payload length in bytes.
+	 */
+	void frameStarted(int length);
+	
+	/**
+	 * Invoked with the next part of the streamed frame payload.
+	 * <p>
+	 * Given array is the buffer that was passed to the decoder, so its
+	 * contents are valid only until this method returns.
+	 * 
+	 * @param data Array that holds the chunk.
+	 * @param offset Offset of the first chunk byte in <code>data</code>.
+	 * @param length Chunk length in bytes, never zero.
+	 */
+	void frameChunk(byte[] data, int offset, int length);
+	
+	/**
+	 * Invoked when the whole payload of the streamed frame has been passed
+	 * to {@link #frameChunk(byte[], int, int)}.
+	 */
+	void frameFinished();
+}
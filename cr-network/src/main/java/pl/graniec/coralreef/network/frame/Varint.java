@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.frame;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Unsigned varint encoding used for lengths: 7 bits per byte, least
+ * significant group first, highest bit set on all bytes but the last.
+ * Values are non-negative <code>int</code> numbers, so a varint takes
+ * at most {@link #MAX_SIZE} bytes and the last of them can carry only
+ * 3 bits.
+ */
+public class Varint {
+
+	/** Maximum number of bytes taken by a varint */
+	public static final int MAX_SIZE = 5;
+	
+	private Varint() {
+	}
+	
+	/**
+	 * Encodes a value into given array.
+	 * 
+	 * @param value Non-negative value.
+	 * @param dest Target array with at least {@link #MAX_SIZE} bytes
+	 * available from <code>offset</code>.
+	 * @param offset Offset of the first byte.
+	 * 
+	 * @return Number of bytes written.
+	 */
+	public static int encode(int value, byte[] dest, int offset) {
+		if (value < 0) {
+			throw new IllegalArgumentException("value cannot be negative");
+		}
+		
+		int pos = offset;
+		
+		while ((value & ~0x7F) != 0) {
+			dest[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		
+		dest[pos++] = (byte) value;
+		
+		return pos - offset;
+	}
+	
+	/**
+	 * Tells if given byte can appear at given position of a varint.
+	 * The fifth byte must not have continuation bit set nor carry bits
+	 * that do not fit into a non-negative <code>int</code>.
+	 * 
+	 * @param shift Bit shift of the byte: <code>0</code>, <code>7</code>,
+	 * ..., <code>28</code>.
+	 * @param b Unsigned byte value.
+	 */
+	public static boolean isValid(int shift, int b) {
+		return shift < 28 || (b & 0xF8) == 0;
+	}
+	
+	/**
+	 * Reads a varint from given stream.
+	 * 
+	 * @return Decoded value or <code>-1</code> if stream has ended cleanly
+	 * before the first byte.
+	 * 
+	 * @throws EOFException When stream ends in the middle of a varint.
+	 * @throws StreamCorruptedException When varint is malformed.
+	 * @throws IOException When stream fails.
+	 */
+	public static int read(InputStream in) throws IOException {
+		int value = 0;
+		
+		for (int shift = 0;; shift += 7) {
+			final int b = in.read();
+			
+			if (b == -1) {
+				if (shift == 0) {
+					return -1;
+				}
+				
+				throw new EOFException("stream ended inside varint");
+			}
+			
+			if (!isValid(shift, b)) {
+				throw new StreamCorruptedException("malformed varint");
+			}
+			
+			value |= (b & 0x7F) << shift;
+			
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+}
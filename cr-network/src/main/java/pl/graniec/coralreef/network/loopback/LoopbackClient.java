@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loopback;
+
+import java.io.NotSerializableException;
+import java.util.Vector;
+
+import pl.graniec.coralreef.network.DisconnectReason;
+import pl.graniec.coralreef.network.Dispatchable;
+import pl.graniec.coralreef.network.PacketListener;
+import pl.graniec.coralreef.network.client.Client;
+import pl.graniec.coralreef.network.client.ConnectionListener;
+import pl.graniec.coralreef.network.exceptions.NetworkException;
+
+/**
+ * {@link Client} that connects to a {@link LoopbackServer} running in
+ * the same JVM. Host name given to {@link #connect(String, int)} is
+ * ignored, only the port is used to find the server.
+ * <p>
+ * Packets and disconnection of the server side are delivered to
+ * listeners only by {@link #dispatch()}. Sending should be done from
+ * a single thread.
+ * 
+ * @see LoopbackServer
+ */
+public class LoopbackClient implements Client, Dispatchable {
+
+	/** Current connection or <code>null</code> */
+	private LoopbackConnection connection;
+	
+	/** Listeners of connection events */
+	private final Vector connectionListeners = new Vector();
+	
+	/** Listeners of packets */
+	private final Vector packetListeners = new Vector();
+	
+	public boolean addConnectionListener(ConnectionListener l) {
+		synchronized (connectionListeners) {
+			if (connectionListeners.contains(l)) {
+				return false;
+			}
+			
+			connectionListeners.addElement(l);
+			return true;
+		}
+	}
+	
+	public boolean addPacketListener(PacketListener l) {
+		synchronized (packetListeners) {
+			if (packetListeners.contains(l)) {
+				return false;
+			}
+			
+			packetListeners.addElement(l);
+			return true;
+		}
+	}
+	
+	public void connect(String host, int port) throws NetworkException {
+		synchronized (this) {
+			if (connection != null) {
+				throw new NetworkException("client is already connected");
+			}
+			
+			final LoopbackServer server = LoopbackServer.find(port);
+			
+			if (server == null) {
+				throw new NetworkException("connection refused: no loopback server on port " + port);
+			}
+			
+			connection = server.connect();
+		}
+		
+		final ConnectionListener[] listeners = getConnectionListenersArray();
+		
+		for (int i = 0; i < listeners.length; ++i) {
+			listeners[i].clientConnected();
+		}
+	}
+	
+	public void disconnect() {
+		final LoopbackConnection closed = takeConnection();
+		
+		if (closed == null) {
+			return;
+		}
+		
+		final String reason = "disconnected by client";
+		
+		closed.closeByClient(reason);
+		fireClientDisconnected(DisconnectReason.UserAction, reason);
+	}
+	
+	/**
+	 * Delivers packets that came from the server since the last call and
+	 * notices the disconnection made by server.
+	 * 
+	 * @return Number of delivered packets.
+	 */
+	public int dispatch() {
+		final LoopbackConnection current;
+		
+		synchronized (this) {
+			current = connection;
+		}
+		
+		if (current == null) {
+			return 0;
+		}
+		
+		// must be read before draining, see LoopbackConnection
+		final boolean closed = current.isServerClosed();
+		int count = 0;
+		Object packet;
+		
+		while (isConnected() && (packet = current.toClient.poll()) != null) {
+			final Object data = current.decode(packet);
+			final PacketListener[] listeners = getPacketListenersArray();
+			
+			for (int i = 0; i < listeners.length; ++i) {
+				listeners[i].packetReceived(data);
+			}
+			
+			++count;
+		}
+		
+		if (closed) {
+			synchronized (this) {
+				if (connection != current) {
+					return count;
+				}
+				
+				connection = null;
+			}
+			
+			fireClientDisconnected(current.getServerCloseCode(), current.getServerCloseReason());
+		}
+		
+		return count;
+	}
+	
+	private void fireClientDisconnected(int reason, String reasonString) {
+		final ConnectionListener[] listeners = getConnectionListenersArray();
+		
+		for (int i = 0; i < listeners.length; ++i) {
+			listeners[i].clientDisconnected(reason, reasonString);
+		}
+	}
+	
+	private ConnectionListener[] getConnectionListenersArray() {
+		synchronized (connectionListeners) {
+			final ConnectionListener[] array = new ConnectionListener[connectionListeners.size()];
+			connectionListeners.copyInto(array);
+			return array;
+		}
+	}
+	
+	private PacketListener[] getPacketListenersArray() {
+		synchronized (packetListeners) {
+			final PacketListener[] array = new PacketListener[packetListeners.size()];
+			packetListeners.copyInto(array);
+			return array;
+		}
+	}
+	
+	public synchronized boolean isConnected() {
+		return connection != null;
+	}
+	
+	public boolean removeConnectionListener(ConnectionListener l) {
+		synchronized (connectionListeners) {
+			return connectionListeners.removeElement(l);
+		}
+	}
+	
+	public boolean removePacketListener(PacketListener l) {
+		synchronized (packetListeners) {
+			return packetListeners.removeElement(l);
+		}
+	}
+	
+	public void send(Object data) throws NotSerializableException, NetworkException {
+		final LoopbackConnection current;
+		
+		synchronized (this) {
+			current = connection;
+		}
+		
+		if (current == null) {
+			throw new NetworkException("client is not connected");
+		}
+		
+		current.send(current.toServer, data);
+	}
+	
+	private synchronized LoopbackConnection takeConnection() {
+		final LoopbackConnection current = connection;
+		connection = null;
+		return current;
+	}
+}
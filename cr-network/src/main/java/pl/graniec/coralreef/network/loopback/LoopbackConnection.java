@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loopback;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import pl.graniec.coralreef.network.DisconnectReason;
+import pl.graniec.coralreef.network.exceptions.NetworkException;
+import pl.graniec.coralreef.network.exceptions.NetworkRuntimeException;
+
+/**
+ * Pair of queues that joins a {@link LoopbackClient} with its
+ * {@link LoopbackRemoteClient}.
+ * <p>
+ * Closing is not queued as a packet, so it cannot be refused by a full
+ * queue. Instead each side sets its closed flag after the last packet.
+ * The other side reads the flag before draining its queue, that way all
+ * packets sent before closing are delivered before the disconnection.
+ */
+class LoopbackConnection {
+
+	/** Packets sent by client */
+	final SpscQueue toServer;
+	
+	/** Packets sent by server */
+	final SpscQueue toClient;
+	
+	/** Should packets be serialized */
+	private final boolean serializing;
+	
+	/** Reason of closing by client */
+	private String clientCloseReason;
+	
+	/** Set when client side has closed the connection */
+	private volatile boolean clientClosed;
+	
+	/** Reason of closing by server from {@link DisconnectReason} */
+	private int serverCloseCode;
+	
+	/** Reason of closing by server */
+	private String serverCloseReason;
+	
+	/** Set when server side has closed the connection */
+	private volatile boolean serverClosed;
+	
+	LoopbackConnection(int queueCapacity, boolean serializing) {
+		this.toServer = new SpscQueue(queueCapacity);
+		this.toClient = new SpscQueue(queueCapacity);
+		this.serializing = serializing;
+	}
+	
+	void closeByClient(String reason) {
+		clientCloseReason = reason;
+		clientClosed = true;
+	}
+	
+	void closeByServer(int code, String reason) {
+		serverCloseCode = code;
+		serverCloseReason = reason;
+		serverClosed = true;
+	}
+	
+	String getClientCloseReason() {
+		return clientCloseReason;
+	}
+	
+	int getServerCloseCode() {
+		return serverCloseCode;
+	}
+	
+	String getServerCloseReason() {
+		return serverCloseReason;
+	}
+	
+	boolean isClientClosed() {
+		return clientClosed;
+	}
+	
+	boolean isServerClosed() {
+		return serverClosed;
+	}
+	
+	/**
+	 * Turns a packet taken from a queue into packet data.
+	 */
+	Object decode(Object packet) {
+		return serializing ? deserialize((byte[]) packet) : packet;
+	}
+	
+	/**
+	 * Returns serialized form of a packet taken from a queue.
+	 * 
+	 * @return Packet bytes or <code>null</code> if packets are not
+	 * serialized.
+	 */
+	byte[] serialized(Object packet) {
+		return serializing ? (byte[]) packet : null;
+	}
+	
+	/**
+	 * Puts a packet into given queue.
+	 * 
+	 * @return Packet as it was queued.
+	 * 
+	 * @throws NotSerializableException When data are not serializable.
+	 * @throws NetworkException When queue is full.
+	 */
+	Object send(SpscQueue queue, Object data) throws NotSerializableException, NetworkException {
+		if (!(data instanceof Serializable)) {
+			throw new NotSerializableException(data == null ? "null" : data.getClass().getName());
+		}
+		
+		final Object packet = serializing ? serialize(data) : data;
+		
+		if (!queue.offer(packet)) {
+			throw new NetworkException("send queue is full");
+		}
+		
+		return packet;
+	}
+	
+	private static byte[] serialize(Object data) throws NotSerializableException, NetworkException {
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final ObjectOutputStream out = new ObjectOutputStream(bytes);
+			
+			out.writeObject(data);
+			out.close();
+			
+			return bytes.toByteArray();
+		} catch (NotSerializableException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new NetworkException("cannot serialize packet", e);
+		}
+	}
+	
+	private static Object deserialize(byte[] packet) {
+		try {
+			return new ObjectInputStream(new ByteArrayInputStream(packet)).readObject();
+		} catch (IOException e) {
+			throw new NetworkRuntimeException("cannot deserialize packet", e);
+		} catch (ClassNotFoundException e) {
+			throw new NetworkRuntimeException("cannot deserialize packet", e);
+		}
+	}
+}
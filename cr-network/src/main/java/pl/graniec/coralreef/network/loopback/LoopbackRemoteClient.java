@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loopback;
+
+import java.io.NotSerializableException;
+import java.util.Vector;
+
+import pl.graniec.coralreef.network.DisconnectReason;
+import pl.graniec.coralreef.network.PacketListener;
+import pl.graniec.coralreef.network.exceptions.NetworkException;
+import pl.graniec.coralreef.network.server.RemoteClient;
+import pl.graniec.coralreef.network.server.TrafficRecorder;
+
+/**
+ * Server side of a loopback connection.
+ * 
+ * @see LoopbackServer
+ */
+class LoopbackRemoteClient implements RemoteClient {
+
+	/** Connection queues */
+	private final LoopbackConnection connection;
+	
+	/** Identifier given by server */
+	private final int id;
+	
+	/** Listeners of packets from this client */
+	private final Vector packetListeners = new Vector();
+	
+	/** Server that accepted this client */
+	private final LoopbackServer server;
+	
+	/** Cleared on disconnection */
+	private boolean connected = true;
+	
+	/** Time of disconnection when server is draining or <code>0</code> */
+	private volatile long shutdownTime;
+	
+	LoopbackRemoteClient(LoopbackServer server, LoopbackConnection connection, int id) {
+		this.server = server;
+		this.connection = connection;
+		this.id = id;
+	}
+	
+	public boolean addPacketListener(PacketListener l) {
+		synchronized (packetListeners) {
+			if (packetListeners.contains(l)) {
+				return false;
+			}
+			
+			packetListeners.addElement(l);
+			return true;
+		}
+	}
+	
+	public void disconnect() {
+		disconnect(DisconnectReason.UserAction, "disconnected by server");
+	}
+	
+	/**
+	 * Disconnects with given reason. Client sees local user action as
+	 * a reset made by the other side.
+	 * 
+	 * @param reason Reason from {@link DisconnectReason}.
+	 * @param reasonString Reason that will be passed to the client.
+	 */
+	void disconnect(int reason, String reasonString) {
+		if (!markDisconnected()) {
+			return;
+		}
+		
+		connection.closeByServer(reason == DisconnectReason.UserAction ? DisconnectReason.Reset : reason, reasonString);
+		server.clientDisconnected(this, reason, reasonString);
+	}
+	
+	/**
+	 * Delivers packets from this client and notices its disconnection.
+	 * 
+	 * @return Number of delivered packets.
+	 */
+	int dispatch() {
+		// must be read before draining, see LoopbackConnection
+		final boolean closed = connection.isClientClosed();
+		int count = 0;
+		Object packet;
+		
+		while (isConnected() && (packet = connection.toServer.poll()) != null) {
+			final Object data = connection.decode(packet);
+			final TrafficRecorder recorder = server.getTrafficRecorder();
+			
+			if (recorder != null) {
+				recorder.packetReceived(this, data, connection.serialized(packet));
+			}
+			
+			firePacketReceived(data);
+			++count;
+		}
+		
+		if (closed && markDisconnected()) {
+			server.clientDisconnected(this, DisconnectReason.Reset, connection.getClientCloseReason());
+		}
+		
+		return count;
+	}
+	
+	private void firePacketReceived(Object data) {
+		final PacketListener[] listeners;
+		
+		synchronized (packetListeners) {
+			listeners = new PacketListener[packetListeners.size()];
+			packetListeners.copyInto(listeners);
+		}
+		
+		for (int i = 0; i < listeners.length; ++i) {
+			listeners[i].packetReceived(data);
+		}
+	}
+	
+	LoopbackConnection getConnection() {
+		return connection;
+	}
+	
+	public int getId() {
+		return id;
+	}
+	
+	long getShutdownTime() {
+		return shutdownTime;
+	}
+	
+	public synchronized boolean isConnected() {
+		return connected;
+	}
+	
+	/**
+	 * Marks this client as disconnected.
+	 * 
+	 * @return <code>false</code> if it was already disconnected.
+	 */
+	private synchronized boolean markDisconnected() {
+		if (!connected) {
+			return false;
+		}
+		
+		connected = false;
+		return true;
+	}
+	
+	public boolean removePacketListener(PacketListener l) {
+		synchronized (packetListeners) {
+			return packetListeners.removeElement(l);
+		}
+	}
+	
+	/**
+	 * Schedules disconnection of this client when server is draining.
+	 * 
+	 * @param shutdownTime Time in milliseconds.
+	 */
+	void setShutdownTime(long shutdownTime) {
+		this.shutdownTime = shutdownTime;
+	}
+	
+	public void send(Object data) throws NotSerializableException, NetworkException {
+		if (!isConnected()) {
+			throw new NetworkException("client is not connected");
+		}
+		
+		final Object packet = connection.send(connection.toClient, data);
+		final TrafficRecorder recorder = server.getTrafficRecorder();
+		
+		if (recorder != null) {
+			recorder.packetSent(this, data, connection.serialized(packet));
+		}
+	}
+}
@@ -0,0 +1,429 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loopback;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import pl.graniec.coralreef.network.DisconnectReason;
+import pl.graniec.coralreef.network.Dispatchable;
+import pl.graniec.coralreef.network.exceptions.NetworkException;
+import pl.graniec.coralreef.network.exceptions.PortInUseException;
+import pl.graniec.coralreef.network.server.ClientRegistry;
+import pl.graniec.coralreef.network.server.ClientVisitor;
+import pl.graniec.coralreef.network.server.ConnectionListener;
+import pl.graniec.coralreef.network.server.RemoteClient;
+import pl.graniec.coralreef.network.server.Server;
+import pl.graniec.coralreef.network.server.TrafficRecorder;
+
+/**
+ * {@link Server} that lives in the memory of current JVM and accepts
+ * connections only from {@link LoopbackClient} objects. Ports are
+ * virtual, so they never collide with real sockets and there is no
+ * limit of them.
+ * <p>
+ * Packets are passed through lock-free single producer, single consumer
+ * queues. By default every packet is serialized as it would be for the
+ * network; with serialization turned off objects are passed by reference
+ * which makes the delivery nearly free.
+ * <p>
+ * Nothing happens in the background. Incoming connections, packets and
+ * disconnections are delivered to listeners only by {@link #dispatch()},
+ * which should be called from a single thread, for instance from the
+ * main loop. Sending to a given remote client should be done from a single
+ * thread too. Graceful closing by {@link #close(long)} is driven by
+ * {@link #dispatch()} as well.
+ * 
+ * @see LoopbackClient
+ */
+public class LoopbackServer implements Server, Dispatchable {
+
+	/** Default capacity of packet queues of each connection */
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+	
+	/** First port assigned when opening on port 0 */
+	private static final int FIRST_EPHEMERAL_PORT = 49152;
+	
+	private static final LoopbackRemoteClient[] NO_CLIENTS = new LoopbackRemoteClient[0];
+	
+	/** Open servers by port number */
+	private static final Hashtable servers = new Hashtable();
+	
+	/** Next candidate for port 0 opening */
+	private static int nextEphemeralPort = FIRST_EPHEMERAL_PORT;
+	
+	/** Accepted clients */
+	private final ClientRegistry clients = new ClientRegistry();
+	
+	/** Dispatches accepted clients, reused between calls */
+	private final ClientDispatcher dispatcher = new ClientDispatcher();
+	
+	/** Listeners of connection events */
+	private final Vector connectionListeners = new Vector();
+	
+	/** Connections not dispatched yet */
+	private final Vector pending = new Vector();
+	
+	/** Port or <code>0</code> if closed */
+	private int port;
+	
+	/** Capacity of queues of new connections */
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	
+	/** Traffic recorder or <code>null</code> */
+	private volatile TrafficRecorder recorder;
+	
+	/** Should new connections serialize packets */
+	private boolean serializing = true;
+	
+	/**
+	 * Finds open server on given port.
+	 * 
+	 * @return Server or <code>null</code> if no server is open on that port.
+	 */
+	static LoopbackServer find(int port) {
+		return (LoopbackServer) servers.get(new Integer(port));
+	}
+	
+	public boolean addConnectionListener(ConnectionListener l) {
+		synchronized (connectionListeners) {
+			if (connectionListeners.contains(l)) {
+				return false;
+			}
+			
+			connectionListeners.addElement(l);
+			return true;
+		}
+	}
+	
+	public void close() {
+		stopAccepting();
+		
+		clients.forEach(new ClientVisitor() {
+			public void visit(RemoteClient client) {
+				((LoopbackRemoteClient) client).disconnect(DisconnectReason.UserAction, "server closed");
+			}
+		});
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Clients are disconnected by {@link #dispatch()}, which has to be
+	 * called until {@link #isDraining()} is <code>false</code>.
+	 */
+	public void close(final long drainTimeout) {
+		if (drainTimeout <= 0) {
+			close();
+			return;
+		}
+		
+		if (!stopAccepting()) {
+			return;
+		}
+		
+		final long now = System.currentTimeMillis();
+		final int count = clients.size();
+		
+		clients.forEach(new ClientVisitor() {
+			private int i;
+			
+			public void visit(RemoteClient client) {
+				((LoopbackRemoteClient) client).setShutdownTime(now + drainTimeout * ++i / count);
+			}
+		});
+	}
+	
+	/**
+	 * Registers a new connection made by {@link LoopbackClient}.
+	 * 
+	 * @throws NetworkException When server has been closed.
+	 */
+	LoopbackConnection connect() throws NetworkException {
+		final LoopbackConnection connection;
+		
+		synchronized (servers) {
+			if (port == 0) {
+				throw new NetworkException("connection refused");
+			}
+			
+			connection = new LoopbackConnection(queueCapacity, serializing);
+			pending.addElement(new LoopbackRemoteClient(this, connection, clients.nextId()));
+		}
+		
+		return connection;
+	}
+	
+	/**
+	 * Delivers all events that came since the last call: new connections,
+	 * packets from remote clients and disconnections.
+	 * 
+	 * @return Number of delivered packets.
+	 */
+	public int dispatch() {
+		final LoopbackRemoteClient[] accepted = takePending();
+		
+		for (int i = 0; i < accepted.length; ++i) {
+			clients.add(accepted[i]);
+			
+			final TrafficRecorder r = recorder;
+			
+			if (r != null) {
+				r.clientConnected(accepted[i]);
+			}
+			
+			fireClientConnected(accepted[i]);
+		}
+		
+		dispatcher.now = System.currentTimeMillis();
+		dispatcher.count = 0;
+		
+		clients.forEach(dispatcher);
+		
+		return dispatcher.count;
+	}
+	
+	/**
+	 * Removes disconnected client and notifies listeners about it.
+	 */
+	void clientDisconnected(LoopbackRemoteClient client, int reason, String reasonString) {
+		clients.remove(client);
+		
+		final TrafficRecorder r = recorder;
+		
+		if (r != null) {
+			r.clientDisconnected(client);
+		}
+		
+		final ConnectionListener[] listeners = getConnectionListenersArray();
+		
+		for (int i = 0; i < listeners.length; ++i) {
+			listeners[i].clientDisconnected(client, reason, reasonString);
+		}
+	}
+	
+	private void fireClientConnected(RemoteClient client) {
+		final ConnectionListener[] listeners = getConnectionListenersArray();
+		
+		for (int i = 0; i < listeners.length; ++i) {
+			listeners[i].clientConnected(client);
+		}
+	}
+	
+	public void forEachClient(ClientVisitor visitor) {
+		clients.forEach(visitor);
+	}
+	
+	public RemoteClient getClient(int id) {
+		return clients.get(id);
+	}
+	
+	public int getClientCount() {
+		return clients.size();
+	}
+	
+	private ConnectionListener[] getConnectionListenersArray() {
+		synchronized (connectionListeners) {
+			final ConnectionListener[] array = new ConnectionListener[connectionListeners.size()];
+			connectionListeners.copyInto(array);
+			return array;
+		}
+	}
+	
+	public int getPort() {
+		return port;
+	}
+	
+	/**
+	 * Returns the capacity of packet queues of new connections.
+	 * 
+	 * @see #setQueueCapacity(int)
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+	
+	/**
+	 * Returns current traffic recorder or <code>null</code>.
+	 */
+	TrafficRecorder getTrafficRecorder() {
+		return recorder;
+	}
+	
+	/**
+	 * Tells if server is closed but some clients are still waiting for
+	 * disconnection.
+	 * 
+	 * @see #close(long)
+	 */
+	public boolean isDraining() {
+		return port == 0 && !clients.isEmpty();
+	}
+	
+	public boolean isOpen() {
+		return port != 0;
+	}
+	
+	/**
+	 * Tells if packets of new connections are serialized.
+	 * 
+	 * @see #setSerializing(boolean)
+	 */
+	public boolean isSerializing() {
+		return serializing;
+	}
+	
+	public void open(int port) throws NetworkException {
+		if (port < 0 || port > 65535) {
+			throw new IllegalArgumentException("port out of range: " + port);
+		}
+		
+		synchronized (servers) {
+			if (this.port != 0) {
+				throw new NetworkException("server is already open");
+			}
+			
+			if (port == 0) {
+				while (servers.containsKey(new Integer(nextEphemeralPort))) {
+					nextEphemeralPort = nextEphemeralPort == 65535 ? FIRST_EPHEMERAL_PORT : nextEphemeralPort + 1;
+				}
+				
+				port = nextEphemeralPort;
+				nextEphemeralPort = nextEphemeralPort == 65535 ? FIRST_EPHEMERAL_PORT : nextEphemeralPort + 1;
+			} else if (servers.containsKey(new Integer(port))) {
+				throw new PortInUseException("loopback port " + port + " is already in use");
+			}
+			
+			servers.put(new Integer(port), this);
+			this.port = port;
+		}
+	}
+	
+	public boolean removeConnectionListener(ConnectionListener l) {
+		synchronized (connectionListeners) {
+			return connectionListeners.removeElement(l);
+		}
+	}
+	
+	/**
+	 * Sets the capacity of packet queues of connections made from now on.
+	 * When queue is full then sending fails, so it should be big enough
+	 * to hold all packets sent between two {@link #dispatch()} calls.
+	 * 
+	 * @param queueCapacity Capacity in packets, rounded up to the power
+	 * of two.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("queueCapacity must be positive");
+		}
+		
+		this.queueCapacity = queueCapacity;
+	}
+	
+	/**
+	 * Sets if packets of connections made from now on should be serialized.
+	 * Without serialization the receiver gets the same object that was
+	 * sent, so it must not be modified after sending.
+	 * 
+	 * @param serializing <code>true</code> to serialize (default),
+	 * <code>false</code> to pass objects by reference.
+	 */
+	public void setSerializing(boolean serializing) {
+		this.serializing = serializing;
+	}
+	
+	public void setTrafficRecorder(TrafficRecorder recorder) {
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * Unregisters the port and refuses connections that were not
+	 * dispatched yet.
+	 * 
+	 * @return <code>false</code> if server was already closed.
+	 */
+	private boolean stopAccepting() {
+		synchronized (servers) {
+			if (port == 0) {
+				return false;
+			}
+			
+			servers.remove(new Integer(port));
+			port = 0;
+		}
+		
+		// connections never announced to listeners are just refused
+		final LoopbackRemoteClient[] refused = takePending();
+		
+		for (int i = 0; i < refused.length; ++i) {
+			refused[i].getConnection().closeByServer(DisconnectReason.Reset, "server closed");
+		}
+		
+		return true;
+	}
+	
+	private LoopbackRemoteClient[] takePending() {
+		synchronized (servers) {
+			if (pending.isEmpty()) {
+				return NO_CLIENTS;
+			}
+			
+			final LoopbackRemoteClient[] array = new LoopbackRemoteClient[pending.size()];
+			pending.copyInto(array);
+			pending.removeAllElements();
+			return array;
+		}
+	}
+	
+	/**
+	 * Dispatches each client and disconnects it when its time has come
+	 * during draining.
+	 */
+	private static class ClientDispatcher implements ClientVisitor {
+		
+		/** Number of delivered packets */
+		int count;
+		
+		/** Time of current dispatching */
+		long now;
+		
+		public void visit(RemoteClient client) {
+			final LoopbackRemoteClient c = (LoopbackRemoteClient) client;
+			
+			count += c.dispatch();
+			
+			final long shutdownTime = c.getShutdownTime();
+			
+			if (shutdownTime != 0 && shutdownTime <= now) {
+				c.disconnect(DisconnectReason.Shutdown, "server is shutting down");
+			}
+		}
+	}
+}
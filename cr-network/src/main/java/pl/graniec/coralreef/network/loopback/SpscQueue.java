@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loopback;
+
+/**
+ * Bounded, lock-free queue for exactly one producer thread and exactly
+ * one consumer thread. Producer and consumer never write the same
+ * field, so no locks nor atomic operations are needed.
+ */
+class SpscQueue {
+
+	/** Ring of elements */
+	private final Object[] ring;
+	
+	/** Mask of ring index */
+	private final int mask;
+	
+	/** Next index to poll from, written only by consumer */
+	private volatile int head;
+	
+	/** Next index to offer to, written only by producer */
+	private volatile int tail;
+	
+	/**
+	 * Creates a new queue.
+	 * 
+	 * @param capacity Minimum capacity, rounded up to the power of two.
+	 */
+	SpscQueue(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		
+		int size = 1;
+		
+		while (size < capacity) {
+			size <<= 1;
+		}
+		
+		ring = new Object[size];
+		mask = size - 1;
+	}
+	
+	/**
+	 * Tells if queue is empty. Reliable only from the consumer thread.
+	 */
+	boolean isEmpty() {
+		return head == tail;
+	}
+	
+	/**
+	 * Puts an element at the end of the queue. Producer thread only.
+	 * 
+	 * @return <code>false</code> if queue is full.
+	 */
+	boolean offer(Object element) {
+		final int t = tail;
+		
+		if (t - head == ring.length) {
+			return false;
+		}
+		
+		ring[t & mask] = element;
+		tail = t + 1;
+		
+		return true;
+	}
+	
+	/**
+	 * Takes an element from the beginning of the queue. Consumer thread
+	 * only.
+	 * 
+	 * @return Element or <code>null</code> if queue is empty.
+	 */
+	Object poll() {
+		final int h = head;
+		
+		if (h == tail) {
+			return null;
+		}
+		
+		final Object element = ring[h & mask];
+		
+		ring[h & mask] = null;
+		head = h + 1;
+		
+		return element;
+	}
+}
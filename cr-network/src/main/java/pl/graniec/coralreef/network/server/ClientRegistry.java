@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.server;
+
+import pl.graniec.coralreef.network.util.IntObjectMap;
+
+/**
+ * Set of connected clients of a {@link Server} with constant time lookup
+ * by identifier. Meant to be used by server implementations.
+ * <p>
+ * Clients are kept in a dense array and the identifier map tells the
+ * slot of each client, so adding and removing take constant time:
+ * removed client is replaced by the last one. Iteration walks a
+ * snapshot copy of that array, which is refreshed by the first
+ * iteration after a change. It does not hold a lock while visiting, so
+ * clients can connect and disconnect meanwhile. The snapshot array is
+ * owned by the registry and reused, it is replaced only when it has to
+ * grow or when it is being iterated by another visitor at the time of
+ * the refresh, so iteration does not allocate in a single threaded
+ * server loop.
+ */
+public class ClientRegistry {
+
+	/** Slots by client identifier */
+	private final IntObjectMap byId = new IntObjectMap();
+	
+	/** Registered clients in slots from <code>0</code> to <code>size - 1</code> */
+	private RemoteClient[] clients = new RemoteClient[16];
+	
+	/** Candidate for the next identifier */
+	private int nextId = 1;
+	
+	/** Number of registered clients */
+	private volatile int size;
+	
+	/** Number of iterations that walk the current snapshot */
+	private int iterations;
+	
+	/** Copy of clients for iteration */
+	private RemoteClient[] snapshot = new RemoteClient[16];
+	
+	/** Number of clients in the snapshot */
+	private int snapshotSize;
+	
+	/** Set when the snapshot does not match registered clients */
+	private boolean stale;
+	
+	/**
+	 * Adds a client.
+	 * 
+	 * @return <code>false</code> if a client with the same identifier is
+	 * already registered.
+	 */
+	public synchronized boolean add(RemoteClient client) {
+		final int id = client.getId();
+		
+		if (byId.containsKey(id)) {
+			return false;
+		}
+		
+		if (size == clients.length) {
+			final RemoteClient[] grown = new RemoteClient[size * 2];
+			System.arraycopy(clients, 0, grown, 0, size);
+			clients = grown;
+		}
+		
+		byId.put(id, new Slot(client, size));
+		clients[size] = client;
+		
+		++size;
+		stale = true;
+		
+		return true;
+	}
+	
+	/**
+	 * Visits all clients registered when this method is invoked.
+	 */
+	public void forEach(ClientVisitor visitor) {
+		final RemoteClient[] current;
+		final int count;
+		
+		synchronized (this) {
+			if (stale) {
+				refreshSnapshot();
+			}
+			
+			current = snapshot;
+			count = snapshotSize;
+			++iterations;
+		}
+		
+		try {
+			for (int i = 0; i < count; ++i) {
+				visitor.visit(current[i]);
+			}
+		} finally {
+			synchronized (this) {
+				if (current == snapshot) {
+					--iterations;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the client of given identifier.
+	 * 
+	 * @return Client or <code>null</code> if there is no such client.
+	 */
+	public synchronized RemoteClient get(int id) {
+		final Slot slot = (Slot) byId.get(id);
+		return slot != null ? slot.client : null;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Reserves an identifier for a new client. Identifiers are positive
+	 * and are not reused until all others were used.
+	 */
+	public synchronized int nextId() {
+		while (byId.containsKey(nextId)) {
+			nextId = nextId == Integer.MAX_VALUE ? 1 : nextId + 1;
+		}
+		
+		final int id = nextId;
+		
+		nextId = nextId == Integer.MAX_VALUE ? 1 : nextId + 1;
+		return id;
+	}
+	
+	/**
+	 * Removes a client.
+	 * 
+	 * @return <code>false</code> if this client was not registered.
+	 */
+	public synchronized boolean remove(RemoteClient client) {
+		final int id = client.getId();
+		final Slot slot = (Slot) byId.get(id);
+		
+		if (slot == null || slot.client != client) {
+			return false;
+		}
+		
+		byId.remove(id);
+		
+		final int last = size - 1;
+		
+		if (slot.index != last) {
+			final RemoteClient moved = clients[last];
+			
+			clients[slot.index] = moved;
+			((Slot) byId.get(moved.getId())).index = slot.index;
+		}
+		
+		clients[last] = null;
+		
+		size = last;
+		stale = true;
+		
+		return true;
+	}
+	
+	/**
+	 * Copies registered clients into the snapshot. Array is reused unless
+	 * it is too small or someone is still iterating over it.
+	 */
+	private void refreshSnapshot() {
+		if (iterations > 0 || snapshot.length < size) {
+			snapshot = new RemoteClient[clients.length];
+			iterations = 0;
+		} else {
+			// release removed clients
+			for (int i = size; i < snapshotSize; ++i) {
+				snapshot[i] = null;
+			}
+		}
+		
+		System.arraycopy(clients, 0, snapshot, 0, size);
+		snapshotSize = size;
+		stale = false;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Registered client and its position in the dense array.
+	 */
+	private static class Slot {
+		
+		final RemoteClient client;
+		
+		int index;
+		
+		Slot(RemoteClient client, int index) {
+			this.client = client;
+			this.index = index;
+		}
+	}
+}
@@ -68,6 +68,15 @@ public interface RemoteClient {
 	 */
 	void disconnect();
 	
+	/**
+	 * Provides an identifier of this client. It is a positive number
+	 * given when client connects and it does not change. No other client
+	 * connected to the same server has the same identifier.
+	 * 
+	 * @see Server#getClient(int)
+	 */
+	int getId();
+	
 	/**
 	 * Tells if this remote client is still connected to the server.
 	 * 
@@ -29,6 +29,7 @@
 
 package pl.graniec.coralreef.network.server;
 
+import pl.graniec.coralreef.network.DisconnectReason;
 import pl.graniec.coralreef.network.client.Client;
 import pl.graniec.coralreef.network.exceptions.NetworkException;
 import pl.graniec.coralreef.network.exceptions.PortInUseException;
@@ -64,11 +65,58 @@ public interface Server {
 	 * Closes the opened server. Closing will disconnect all currently
 	 * connected clients, This will also trigger disconnection event for
 	 * all connection listeners.
+	 * <p>
+	 * Disconnection is immediate, so packets that were not delivered yet
+	 * are lost. Use {@link #close(long)} to close gracefully. 
 	 * 
 	 * @see #open(int)
 	 */
 	void close();
 	
+	/**
+	 * Closes the opened server gracefully. New connections are refused
+	 * at once, but connected clients are disconnected one by one over
+	 * given time, so they do not all come back at the same moment. Each
+	 * client receives all packets sent to it before it is told that the
+	 * server is shutting down.
+	 * <p>
+	 * Disconnection event with {@link DisconnectReason#Shutdown} reason
+	 * is triggered exactly once for every client, unless it disconnects
+	 * earlier by itself. Calling {@link #close()} during this time
+	 * disconnects remaining clients immediately.
+	 * 
+	 * @param drainTimeout Time in milliseconds over which clients are
+	 * disconnected. If not positive then this works as {@link #close()}.
+	 * 
+	 * @see #open(int)
+	 */
+	void close(long drainTimeout);
+	
+	/**
+	 * Visits all clients that are connected when this method is invoked.
+	 * Iteration does not allocate and does not stop clients from
+	 * connecting or disconnecting meanwhile, so a visited client may be
+	 * already disconnected.
+	 * 
+	 * @param visitor Visitor object, can be reused.
+	 */
+	void forEachClient(ClientVisitor visitor);
+	
+	/**
+	 * Finds a connected client by its identifier.
+	 * 
+	 * @param id Identifier from {@link RemoteClient#getId()}.
+	 * 
+	 * @return Client or <code>null</code> if there is no such client
+	 * connected.
+	 */
+	RemoteClient getClient(int id);
+	
+	/**
+	 * Provides a number of currently connected clients.
+	 */
+	int getClientCount();
+	
 	/**
 	 * Provides a port number on which the server is running on.
 	 * 
@@ -117,4 +165,14 @@ public interface Server {
 	 * @see #addConnectionListener(ConnectionListener)
 	 */
 	boolean removeConnectionListener(ConnectionListener l);
+	
+	/**
+	 * Sets a recorder that will observe all connections and packets
+	 * of this server. Recording slows the server down, so it is
+	 * disabled by default.
+	 * 
+	 * @param recorder Recorder object or <code>null</code> to stop
+	 * recording.
+	 */
+	void setTrafficRecorder(TrafficRecorder recorder);
 }
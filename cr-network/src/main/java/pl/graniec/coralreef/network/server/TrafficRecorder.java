@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.server;
+
+/**
+ * Observer of all traffic that goes through a {@link Server}. Unlike
+ * listeners it is meant for diagnostics, so it is notified about sent
+ * packets too.
+ * <p>
+ * Methods may be invoked from different threads: packets are received
+ * on the dispatching thread and sent on any thread that uses
+ * {@link RemoteClient#send(Object)}.
+ * 
+ * @see Server#setTrafficRecorder(TrafficRecorder)
+ */
+public interface TrafficRecorder {
+
+	/**
+	 * Invoked when a new client has been accepted, before any of its
+	 * packets.
+	 * 
+	 * @param client Connected client.
+	 */
+	void clientConnected(RemoteClient client);
+	
+	/**
+	 * Invoked when a client has been disconnected, after all of its
+	 * packets.
+	 * 
+	 * @param client Disconnected client.
+	 */
+	void clientDisconnected(RemoteClient client);
+	
+	/**
+	 * Invoked when a packet from client has been received, before it is
+	 * passed to packet listeners.
+	 * 
+	 * @param client Sender of the packet.
+	 * @param data Contents of the packet.
+	 * @param serialized Packet as serialized by the transport, must not
+	 * be modified. <code>null</code> if transport did not serialize it.
+	 */
+	void packetReceived(RemoteClient client, Object data, byte[] serialized);
+	
+	/**
+	 * Invoked when a packet has been successfully sent to the client.
+	 * 
+	 * @param client Receiver of the packet.
+	 * @param data Contents of the packet.
+	 * @param serialized Packet as serialized by the transport, must not
+	 * be modified. <code>null</code> if transport did not serialize it.
+	 */
+	void packetSent(RemoteClient client, Object data, byte[] serialized);
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.util;
+
+/**
+ * Hash map from primitive <code>int</code> keys to objects. Keys are
+ * not boxed and entries are kept in plain arrays with open addressing
+ * and linear probing, so lookups and updates do not allocate (except
+ * growing).
+ * <p>
+ * Values cannot be <code>null</code>. This class is not thread safe.
+ */
+public class IntObjectMap {
+
+	/** Keys of entries */
+	private int[] keys;
+	
+	/** Mask of slot index */
+	private int mask;
+	
+	/** Number of entries */
+	private int size;
+	
+	/** Values of entries, <code>null</code> marks an empty slot */
+	private Object[] values;
+	
+	/**
+	 * Creates an empty map.
+	 */
+	public IntObjectMap() {
+		this(16);
+	}
+	
+	/**
+	 * Creates an empty map that can hold given number of entries without
+	 * growing.
+	 */
+	public IntObjectMap(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize cannot be negative");
+		}
+		
+		int capacity = 2;
+		
+		// keep load factor at most 1/2
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		
+		allocate(capacity);
+	}
+	
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+	
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = null;
+		}
+		
+		size = 0;
+	}
+	
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+	
+	/**
+	 * Returns the value of given key.
+	 * 
+	 * @return Value or <code>null</code> if there is no such key.
+	 */
+	public Object get(int key) {
+		for (int i = slotOf(key);; i = (i + 1) & mask) {
+			final Object value = values[i];
+			
+			if (value == null || keys[i] == key) {
+				return value;
+			}
+		}
+	}
+	
+	/**
+	 * Puts a value under given key.
+	 * 
+	 * @param key Key.
+	 * @param value Value that is not <code>null</code>.
+	 * 
+	 * @return Previous value of this key or <code>null</code>.
+	 */
+	public Object put(int key, Object value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value cannot be null");
+		}
+		
+		int i = slotOf(key);
+		
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				final Object previous = values[i];
+				values[i] = value;
+				return previous;
+			}
+		}
+		
+		keys[i] = key;
+		values[i] = value;
+		
+		if (++size * 2 > values.length) {
+			rehash(values.length * 2);
+		}
+		
+		return null;
+	}
+	
+	private void rehash(int capacity) {
+		final int[] oldKeys = keys;
+		final Object[] oldValues = values;
+		
+		allocate(capacity);
+		
+		for (int j = 0; j < oldValues.length; ++j) {
+			if (oldValues[j] != null) {
+				int i = slotOf(oldKeys[j]);
+				
+				while (values[i] != null) {
+					i = (i + 1) & mask;
+				}
+				
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+	
+	/**
+	 * Removes the entry of given key.
+	 * 
+	 * @return Removed value or <code>null</code> if there was no such key.
+	 */
+	public Object remove(int key) {
+		int i = slotOf(key);
+		
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				break;
+			}
+		}
+		
+		final Object removed = values[i];
+		
+		if (removed == null) {
+			return null;
+		}
+		
+		values[i] = null;
+		--size;
+		
+		// shift back following entries that would not be found otherwise
+		for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+			final int home = slotOf(keys[j]);
+			final boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+			
+			if (!reachable) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				values[j] = null;
+				i = j;
+			}
+		}
+		
+		return removed;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	private int slotOf(int key) {
+		final int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
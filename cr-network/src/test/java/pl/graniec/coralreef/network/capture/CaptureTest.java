@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.capture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StreamCorruptedException;
+
+import junit.framework.TestCase;
+
+import pl.graniec.coralreef.network.server.RemoteClient;
+import pl.graniec.coralreef.network.server.StubRemoteClient;
+
+public class CaptureTest extends TestCase {
+
+	public void testRoundTrip() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final CaptureWriter writer = new CaptureWriter(bytes);
+		final RemoteClient client = new StubRemoteClient(7);
+		
+		writer.clientConnected(client);
+		writer.packetReceived(client, "hello", null);
+		writer.packetSent(client, new Object(), null);
+		writer.packetSent(client, "bye", null);
+		writer.clientDisconnected(client);
+		writer.close();
+		
+		assertNull(writer.getError());
+		assertEquals(1, writer.getSkippedCount());
+		
+		final CaptureReader reader = new CaptureReader(new ByteArrayInputStream(bytes.toByteArray()));
+		
+		assertTrue(reader.next());
+		assertEquals(RecordType.Connected, reader.getType());
+		assertEquals(7, reader.getClientId());
+		
+		assertTrue(reader.next());
+		assertEquals(RecordType.Received, reader.getType());
+		assertEquals("hello", reader.getObject());
+		
+		assertTrue(reader.next());
+		assertEquals(RecordType.Sent, reader.getType());
+		assertEquals("bye", reader.getObject());
+		
+		assertTrue(reader.next());
+		assertEquals(RecordType.Disconnected, reader.getType());
+		
+		assertFalse(reader.next());
+	}
+	
+	public void testRecordOverLimit() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final CaptureWriter writer = new CaptureWriter(bytes);
+		final RemoteClient client = new StubRemoteClient(1);
+		
+		writer.clientConnected(client);
+		writer.packetReceived(client, null, new byte[100]);
+		writer.close();
+		
+		final CaptureReader reader = new CaptureReader(new ByteArrayInputStream(bytes.toByteArray()));
+		reader.setMaxRecordSize(99);
+		
+		assertTrue(reader.next());
+		
+		try {
+			reader.next();
+			fail("expected StreamCorruptedException");
+		} catch (StreamCorruptedException e) {
+			// expected
+		}
+	}
+}
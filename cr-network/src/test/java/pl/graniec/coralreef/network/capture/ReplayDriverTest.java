@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.capture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import pl.graniec.coralreef.network.PacketListener;
+import pl.graniec.coralreef.network.client.Client;
+import pl.graniec.coralreef.network.client.ClientFactory;
+import pl.graniec.coralreef.network.loopback.LoopbackClient;
+import pl.graniec.coralreef.network.loopback.LoopbackServer;
+import pl.graniec.coralreef.network.server.ConnectionListener;
+import pl.graniec.coralreef.network.server.RemoteClient;
+import pl.graniec.coralreef.network.server.StubRemoteClient;
+
+public class ReplayDriverTest extends TestCase {
+
+	/** Pause in the capture before the last records */
+	private static final long PAUSE = 200;
+	
+	private LoopbackServer server;
+	
+	/** Packets received by each replayed client, in order of connection */
+	private Vector received;
+	
+	private int disconnected;
+	
+	protected void setUp() throws Exception {
+		received = new Vector();
+		disconnected = 0;
+		
+		server = new LoopbackServer();
+		server.addConnectionListener(new ConnectionListener() {
+			public void clientConnected(RemoteClient client) {
+				final Vector packets = new Vector();
+				
+				received.addElement(packets);
+				client.addPacketListener(new PacketListener() {
+					public void packetReceived(Object data) {
+						packets.addElement(data);
+					}
+				});
+			}
+			
+			public void clientDisconnected(RemoteClient client, int reason, String reasonString) {
+				++disconnected;
+			}
+		});
+		server.open(0);
+	}
+	
+	protected void tearDown() {
+		server.close();
+	}
+	
+	/**
+	 * Captures clients 5 and 9, where 5 is still connected at the end.
+	 */
+	private static CaptureReader capture() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final CaptureWriter writer = new CaptureWriter(bytes);
+		final RemoteClient first = new StubRemoteClient(5);
+		final RemoteClient second = new StubRemoteClient(9);
+		
+		writer.clientConnected(first);
+		writer.clientConnected(second);
+		writer.packetReceived(first, "a", null);
+		writer.packetSent(first, "x", null);
+		writer.packetReceived(second, "b", null);
+		writer.packetSent(second, "y", null);
+		
+		Thread.sleep(PAUSE);
+		
+		writer.packetReceived(first, "c", null);
+		writer.clientDisconnected(second);
+		writer.close();
+		
+		assertNull(writer.getError());
+		
+		return new CaptureReader(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+	
+	private ReplayDriver driver(boolean paced) throws Exception {
+		final ReplayDriver driver = new ReplayDriver(capture(), new ClientFactory() {
+			public Client createClient() {
+				return new LoopbackClient();
+			}
+		}, "localhost", server.getPort());
+		
+		driver.setPaced(paced);
+		
+		return driver;
+	}
+	
+	private void assertReplayed(ReplayDriver driver) {
+		assertTrue(driver.isFinished());
+		assertEquals(8, driver.getReplayedCount());
+		
+		assertEquals(2, received.size());
+		
+		final Vector first = (Vector) received.elementAt(0);
+		final Vector second = (Vector) received.elementAt(1);
+		
+		assertEquals(2, first.size());
+		assertEquals("a", first.elementAt(0));
+		assertEquals("c", first.elementAt(1));
+		
+		assertEquals(1, second.size());
+		assertEquals("b", second.elementAt(0));
+		
+		assertEquals(2, disconnected);
+		assertEquals(0, server.getClientCount());
+	}
+	
+	public void testUnpaced() throws Exception {
+		final ReplayDriver driver = driver(false);
+		
+		while (driver.step()) {
+			server.dispatch();
+		}
+		
+		server.dispatch();
+		
+		assertFalse(driver.step());
+		assertReplayed(driver);
+	}
+	
+	public void testPaced() throws Exception {
+		final ReplayDriver driver = driver(true);
+		
+		// the first records may span a millisecond boundary
+		assertTrue(driver.step());
+		
+		while (driver.getReplayedCount() < 6) {
+			Thread.sleep(driver.getDelay());
+			assertTrue(driver.step());
+		}
+		
+		server.dispatch();
+		
+		// records after the pause are not due yet
+		assertEquals(6, driver.getReplayedCount());
+		assertTrue(driver.getDelay() > PAUSE / 2);
+		assertEquals(0, disconnected);
+		
+		while (driver.step()) {
+			server.dispatch();
+			Thread.sleep(driver.getDelay());
+		}
+		
+		server.dispatch();
+		
+		assertReplayed(driver);
+	}
+}
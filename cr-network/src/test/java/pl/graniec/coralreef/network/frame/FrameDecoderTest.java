@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.frame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import pl.graniec.coralreef.network.exceptions.FrameTooLargeException;
+
+public class FrameDecoderTest extends TestCase {
+
+	private static final int MAX = 1000;
+	
+	private FrameDecoder decoder;
+	
+	private Vector frames;
+	
+	protected void setUp() {
+		frames = new Vector();
+		decoder = new FrameDecoder(new FrameListener() {
+			public void frameReceived(byte[] data, int offset, int length) {
+				final byte[] copy = new byte[length];
+				System.arraycopy(data, offset, copy, 0, length);
+				frames.addElement(copy);
+			}
+		}, MAX);
+	}
+	
+	private static byte[] payload(int length) {
+		final byte[] payload = new byte[length];
+		
+		for (int i = 0; i < length; ++i) {
+			payload[i] = (byte) (i * 31);
+		}
+		
+		return payload;
+	}
+	
+	private static byte[] encode(byte[][] payloads) throws IOException, FrameTooLargeException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final FrameWriter writer = new FrameWriter(out, Integer.MAX_VALUE);
+		
+		for (int i = 0; i < payloads.length; ++i) {
+			writer.writeFrame(payloads[i]);
+		}
+		
+		return out.toByteArray();
+	}
+	
+	private void assertRejected(byte[] data) {
+		try {
+			decoder.decode(data, 0, data.length);
+			fail("expected FrameTooLargeException");
+		} catch (FrameTooLargeException e) {
+			// expected
+		}
+		
+		assertEquals(0, frames.size());
+	}
+	
+	public void testByteAtATime() throws Exception {
+		final byte[][] payloads = { payload(3), payload(200), payload(1) };
+		final byte[] data = encode(payloads);
+		
+		for (int i = 0; i < data.length; ++i) {
+			decoder.decode(data, i, 1);
+		}
+		
+		assertEquals(payloads.length, frames.size());
+		
+		for (int i = 0; i < payloads.length; ++i) {
+			assertBytes(payloads[i], (byte[]) frames.elementAt(i));
+		}
+		
+		assertFalse(decoder.isPartial());
+	}
+	
+	public void testManyFramesInOneChunk() throws Exception {
+		final byte[][] payloads = { payload(5), payload(130), payload(7), payload(0) };
+		final byte[] data = encode(payloads);
+		
+		decoder.decode(data, 0, data.length);
+		
+		assertEquals(payloads.length, frames.size());
+		
+		for (int i = 0; i < payloads.length; ++i) {
+			assertBytes(payloads[i], (byte[]) frames.elementAt(i));
+		}
+	}
+	
+	public void testZeroLengthFrame() throws Exception {
+		decoder.decode(new byte[] { 0 }, 0, 1);
+		
+		assertEquals(1, frames.size());
+		assertEquals(0, ((byte[]) frames.elementAt(0)).length);
+		assertFalse(decoder.isPartial());
+	}
+	
+	public void testFrameAtMaximumSize() throws Exception {
+		final byte[] data = encode(new byte[][] { payload(MAX) });
+		
+		decoder.decode(data, 0, 10);
+		assertTrue(decoder.isPartial());
+		
+		decoder.decode(data, 10, data.length - 10);
+		
+		assertEquals(1, frames.size());
+		assertBytes(payload(MAX), (byte[]) frames.elementAt(0));
+	}
+	
+	public void testFrameOverMaximumSize() throws Exception {
+		final byte[] prefix = new byte[Varint.MAX_SIZE];
+		
+		assertRejected(subArray(prefix, Varint.encode(MAX + 1, prefix, 0)));
+	}
+	
+	public void testOverlongPrefix() {
+		// continuation bit on the fifth byte
+		assertRejected(new byte[] { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01 });
+	}
+	
+	public void testNegativeLengthPrefix() {
+		assertRejected(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F });
+	}
+	
+	public void testEndlessContinuation() {
+		final byte[] data = new byte[1000];
+		
+		for (int i = 0; i < data.length; ++i) {
+			data[i] = (byte) 0x80;
+		}
+		
+		assertRejected(data);
+	}
+	
+	public void testReset() throws Exception {
+		decoder.decode(new byte[] { 5, 1, 2 }, 0, 3);
+		assertTrue(decoder.isPartial());
+		
+		decoder.reset();
+		assertFalse(decoder.isPartial());
+		
+		decoder.decode(new byte[] { 1, 9 }, 0, 2);
+		
+		assertEquals(1, frames.size());
+		assertBytes(new byte[] { 9 }, (byte[]) frames.elementAt(0));
+	}
+	
+	public void testStreaming() throws Exception {
+		final byte[][] payloads = { payload(10), payload(500), payload(101), payload(100) };
+		final byte[] data = encode(payloads);
+		
+		// whole input at once and then byte by byte
+		for (int chunk = data.length; chunk > 0; chunk = chunk == 1 ? 0 : 1) {
+			final Vector events = new Vector();
+			final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+			final FrameDecoder streamingDecoder = new FrameDecoder(new StreamingFrameListener() {
+				public void frameReceived(byte[] bytes, int offset, int length) {
+					events.addElement("frame " + length);
+				}
+				
+				public void frameStarted(int length) {
+					events.addElement("start " + length);
+					streamed.reset();
+				}
+				
+				public void frameChunk(byte[] bytes, int offset, int length) {
+					assertTrue(length > 0);
+					streamed.write(bytes, offset, length);
+				}
+				
+				public void frameFinished() {
+					events.addElement("finish " + streamed.size());
+					assertBytes(payloads[events.size() / 2], streamed.toByteArray());
+				}
+			}, MAX);
+			
+			streamingDecoder.setStreamingThreshold(100);
+			
+			for (int i = 0; i < data.length; i += chunk) {
+				streamingDecoder.decode(data, i, Math.min(chunk, data.length - i));
+			}
+			
+			assertFalse(streamingDecoder.isPartial());
+			assertEquals(6, events.size());
+			assertEquals("frame 10", events.elementAt(0));
+			assertEquals("start 500", events.elementAt(1));
+			assertEquals("finish 500", events.elementAt(2));
+			assertEquals("start 101", events.elementAt(3));
+			assertEquals("finish 101", events.elementAt(4));
+			assertEquals("frame 100", events.elementAt(5));
+		}
+	}
+	
+	public void testStreamingNeedsStreamingListener() {
+		try {
+			decoder.setStreamingThreshold(100);
+			fail("threshold accepted for plain listener");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		assertEquals(Integer.MAX_VALUE, decoder.getStreamingThreshold());
+	}
+	
+	private static byte[] subArray(byte[] data, int length) {
+		final byte[] sub = new byte[length];
+		System.arraycopy(data, 0, sub, 0, length);
+		return sub;
+	}
+	
+	private static void assertBytes(byte[] expected, byte[] actual) {
+		assertEquals(expected.length, actual.length);
+		
+		for (int i = 0; i < expected.length; ++i) {
+			assertEquals("byte " + i, expected[i], actual[i]);
+		}
+	}
+}
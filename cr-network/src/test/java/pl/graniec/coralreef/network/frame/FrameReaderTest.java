@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.frame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import pl.graniec.coralreef.network.PacketListener;
+import pl.graniec.coralreef.network.exceptions.FrameTooLargeException;
+
+public class FrameReaderTest extends TestCase {
+
+	private static byte[] encode(byte[][] payloads) throws IOException, FrameTooLargeException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final FrameWriter writer = new FrameWriter(out, Integer.MAX_VALUE);
+		
+		for (int i = 0; i < payloads.length; ++i) {
+			writer.writeFrame(payloads[i]);
+		}
+		
+		return out.toByteArray();
+	}
+	
+	private static byte[] filled(int length, int value) {
+		final byte[] payload = new byte[length];
+		
+		for (int i = 0; i < length; ++i) {
+			payload[i] = (byte) value;
+		}
+		
+		return payload;
+	}
+	
+	public void testHalfReadStreamedFrameIsSkipped() throws Exception {
+		final byte[] data = encode(new byte[][] { filled(500, 1), filled(3, 2) });
+		final FrameReader reader = new FrameReader(new ByteArrayInputStream(data), 1000);
+		final Vector received = new Vector();
+		
+		reader.setStreamingThreshold(100);
+		
+		assertTrue(reader.readFrame(new PacketListener() {
+			public void packetReceived(Object data) {
+				assertTrue(data instanceof InputStream);
+				
+				try {
+					final byte[] half = new byte[250];
+					assertEquals(250, ((InputStream) data).read(half));
+				} catch (IOException e) {
+					throw new RuntimeException(e.getMessage());
+				}
+			}
+		}));
+		
+		assertTrue(reader.readFrame(new PacketListener() {
+			public void packetReceived(Object data) {
+				received.addElement(data);
+			}
+		}));
+		
+		assertBytes(filled(3, 2), (byte[]) received.elementAt(0));
+		assertFalse(reader.readFrame(null));
+	}
+	
+	public void testListenerFailureIsPassedOn() throws Exception {
+		final byte[] data = encode(new byte[][] { filled(500, 1), filled(3, 2) });
+		final FrameReader reader = new FrameReader(new ByteArrayInputStream(data, 0, 300), 1000);
+		final IllegalStateException failure = new IllegalStateException();
+		
+		reader.setStreamingThreshold(100);
+		
+		try {
+			reader.readFrame(new PacketListener() {
+				public void packetReceived(Object data) {
+					throw failure;
+				}
+			});
+			fail("expected listener exception");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+		
+		try {
+			reader.readFrame(null);
+			fail("expected IOException");
+		} catch (IOException e) {
+			// reader is unusable
+		}
+	}
+	
+	public void testOverlongPrefix() throws Exception {
+		final byte[] data = { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01 };
+		
+		try {
+			new FrameReader(new ByteArrayInputStream(data), 1000).readFrame(null);
+			fail("expected FrameTooLargeException");
+		} catch (FrameTooLargeException e) {
+			// expected
+		}
+	}
+	
+	public void testFrameOverMaximumSize() throws Exception {
+		final byte[] data = encode(new byte[][] { filled(1001, 0) });
+		
+		try {
+			new FrameReader(new ByteArrayInputStream(data), 1000).readFrame(null);
+			fail("expected FrameTooLargeException");
+		} catch (FrameTooLargeException e) {
+			// expected
+		}
+	}
+	
+	private static void assertBytes(byte[] expected, byte[] actual) {
+		assertEquals(expected.length, actual.length);
+		
+		for (int i = 0; i < expected.length; ++i) {
+			assertEquals("byte " + i, expected[i], actual[i]);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loopback;
+
+import java.util.Vector;
+
+import pl.graniec.coralreef.network.PacketListener;
+import pl.graniec.coralreef.network.server.RemoteClient;
+
+/**
+ * Listener of both sides of a loopback connection that writes down
+ * every event it gets, in order.
+ */
+class EventLog implements pl.graniec.coralreef.network.client.ConnectionListener,
+		pl.graniec.coralreef.network.server.ConnectionListener, PacketListener {
+
+	/** Event descriptions */
+	final Vector events = new Vector();
+	
+	/** Received packets */
+	final Vector packets = new Vector();
+	
+	/** Remote clients in order of connection */
+	final Vector clients = new Vector();
+	
+	public synchronized void clientConnected() {
+		events.addElement("connected");
+	}
+	
+	public synchronized void clientConnected(RemoteClient client) {
+		events.addElement("connected " + client.getId());
+		clients.addElement(client);
+		client.addPacketListener(this);
+	}
+	
+	public synchronized void clientDisconnected(int reason, String reasonString) {
+		events.addElement("disconnected " + reason);
+	}
+	
+	public synchronized void clientDisconnected(RemoteClient client, int reason, String reasonString) {
+		events.addElement("disconnected " + client.getId() + " " + reason);
+	}
+	
+	/**
+	 * Counts the events that start with given prefix.
+	 */
+	synchronized int count(String prefix) {
+		int count = 0;
+		
+		for (int i = 0; i < events.size(); ++i) {
+			if (((String) events.elementAt(i)).startsWith(prefix)) {
+				++count;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Returns the remote client that connected as <code>index</code>-th.
+	 */
+	synchronized RemoteClient client(int index) {
+		return (RemoteClient) clients.elementAt(index);
+	}
+	
+	public synchronized void packetReceived(Object data) {
+		events.addElement("packet " + data);
+		packets.addElement(data);
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loopback;
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import pl.graniec.coralreef.network.DisconnectReason;
+import pl.graniec.coralreef.network.server.ConnectionListener;
+import pl.graniec.coralreef.network.server.RemoteClient;
+
+public class LoopbackDrainTest extends TestCase {
+
+	private static final int CLIENTS = 4;
+	
+	private LoopbackServer server;
+	
+	private EventLog serverLog;
+	
+	private LoopbackClient[] clients;
+	
+	private EventLog[] clientLogs;
+	
+	protected void setUp() throws Exception {
+		server = new LoopbackServer();
+		serverLog = new EventLog();
+		server.addConnectionListener(serverLog);
+		server.open(0);
+		
+		clients = new LoopbackClient[CLIENTS];
+		clientLogs = new EventLog[CLIENTS];
+		
+		for (int i = 0; i < CLIENTS; ++i) {
+			clientLogs[i] = new EventLog();
+			clients[i] = connect(clientLogs[i]);
+		}
+		
+		server.dispatch();
+		
+		assertEquals(CLIENTS, server.getClientCount());
+	}
+	
+	protected void tearDown() {
+		server.close();
+	}
+	
+	private LoopbackClient connect(EventLog log) throws Exception {
+		final LoopbackClient client = new LoopbackClient();
+		
+		client.addConnectionListener(log);
+		client.addPacketListener(log);
+		client.connect("localhost", server.getPort());
+		
+		return client;
+	}
+	
+	private void dispatchClients() {
+		for (int i = 0; i < CLIENTS; ++i) {
+			clients[i].dispatch();
+		}
+	}
+	
+	/**
+	 * Dispatches both sides until the server has drained.
+	 */
+	private void drain() throws InterruptedException {
+		final long limit = System.currentTimeMillis() + 5000;
+		
+		while (server.isDraining()) {
+			assertTrue("drain timed out", System.currentTimeMillis() < limit);
+			
+			server.dispatch();
+			dispatchClients();
+			Thread.sleep(5);
+		}
+		
+		dispatchClients();
+		
+		assertFalse(server.isDraining());
+		assertEquals(0, server.getClientCount());
+	}
+	
+	private void assertDisconnectedOnce(int serverReason, int clientReason) {
+		for (int i = 0; i < CLIENTS; ++i) {
+			final RemoteClient remote = serverLog.client(i);
+			
+			assertEquals(1, serverLog.count("disconnected " + remote.getId() + " "));
+			assertEquals(1, serverLog.count("disconnected " + remote.getId() + " " + serverReason));
+			
+			assertEquals(1, clientLogs[i].count("disconnected"));
+			assertEquals(1, clientLogs[i].count("disconnected " + clientReason));
+			assertFalse(clients[i].isConnected());
+		}
+		
+		assertEquals(CLIENTS, serverLog.count("disconnected"));
+	}
+	
+	public void testDrain() throws Exception {
+		server.close(200);
+		
+		assertTrue(server.isDraining());
+		assertFalse(server.isOpen());
+		
+		drain();
+		
+		assertDisconnectedOnce(DisconnectReason.Shutdown, DisconnectReason.Shutdown);
+		
+		server.dispatch();
+		dispatchClients();
+		
+		assertDisconnectedOnce(DisconnectReason.Shutdown, DisconnectReason.Shutdown);
+	}
+	
+	public void testClientLeavesDuringDrain() throws Exception {
+		server.close(300);
+		server.dispatch();
+		
+		clients[0].disconnect();
+		
+		drain();
+		
+		final RemoteClient first = serverLog.client(0);
+		
+		assertEquals(1, serverLog.count("disconnected " + first.getId() + " "));
+		assertEquals(1, serverLog.count("disconnected " + first.getId() + " " + DisconnectReason.Reset));
+		assertEquals(1, clientLogs[0].count("disconnected"));
+		assertEquals(1, clientLogs[0].count("disconnected " + DisconnectReason.UserAction));
+		
+		for (int i = 1; i < CLIENTS; ++i) {
+			assertEquals(1, serverLog.count("disconnected " + serverLog.client(i).getId() + " "));
+			assertEquals(1, clientLogs[i].count("disconnected " + DisconnectReason.Shutdown));
+		}
+		
+		assertEquals(CLIENTS, serverLog.count("disconnected"));
+	}
+	
+	public void testCloseDuringDrain() throws Exception {
+		server.close(10000);
+		server.dispatch();
+		
+		server.close();
+		
+		assertFalse(server.isDraining());
+		
+		drain();
+		
+		assertDisconnectedOnce(DisconnectReason.UserAction, DisconnectReason.Reset);
+	}
+	
+	public void testPacketsBeforeShutdown() throws Exception {
+		for (int i = 0; i < CLIENTS; ++i) {
+			final RemoteClient remote = serverLog.client(i);
+			
+			remote.send("a");
+			remote.send("b");
+			clients[i].send("c" + remote.getId());
+		}
+		
+		server.close(100);
+		drain();
+		
+		for (int i = 0; i < CLIENTS; ++i) {
+			final Vector events = clientLogs[i].events;
+			
+			assertEquals(4, events.size());
+			assertEquals("packet a", events.elementAt(1));
+			assertEquals("packet b", events.elementAt(2));
+			assertEquals("disconnected " + DisconnectReason.Shutdown, events.elementAt(3));
+			
+			final int id = serverLog.client(i).getId();
+			
+			assertTrue(serverLog.events.indexOf("packet c" + id) < serverLog.events.indexOf("disconnected " + id + " " + DisconnectReason.Shutdown));
+		}
+	}
+	
+	public void testDisconnectsAreSpread() throws Exception {
+		final Vector times = new Vector();
+		
+		server.addConnectionListener(new ConnectionListener() {
+			public void clientConnected(RemoteClient client) {
+			}
+			
+			public void clientDisconnected(RemoteClient client, int reason, String reasonString) {
+				times.addElement(new Long(System.currentTimeMillis()));
+			}
+		});
+		
+		final long start = System.currentTimeMillis();
+		
+		server.close(400);
+		drain();
+		
+		assertEquals(CLIENTS, times.size());
+		
+		final long first = ((Long) times.firstElement()).longValue();
+		final long last = ((Long) times.lastElement()).longValue();
+		
+		// deadlines are 100 ms apart, starting 100 ms after close
+		assertTrue(first - start >= 50);
+		assertTrue(last - first >= 200);
+		assertTrue(last - start >= 400);
+	}
+	
+	public void testPendingConnectionRefused() throws Exception {
+		final EventLog log = new EventLog();
+		final LoopbackClient late = connect(log);
+		
+		server.close(100);
+		
+		late.dispatch();
+		
+		assertFalse(late.isConnected());
+		assertEquals(1, log.count("disconnected " + DisconnectReason.Reset));
+		
+		drain();
+		
+		assertEquals(CLIENTS, serverLog.count("connected"));
+		assertEquals(CLIENTS, serverLog.count("disconnected"));
+		assertEquals(1, log.count("disconnected"));
+	}
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loopback;
+
+import java.io.NotSerializableException;
+import java.io.Serializable;
+
+import junit.framework.TestCase;
+
+import pl.graniec.coralreef.network.DisconnectReason;
+import pl.graniec.coralreef.network.exceptions.NetworkException;
+import pl.graniec.coralreef.network.exceptions.PortInUseException;
+import pl.graniec.coralreef.network.server.RemoteClient;
+
+public class LoopbackTransportTest extends TestCase {
+
+	private LoopbackServer server;
+	
+	private EventLog serverLog;
+	
+	private LoopbackClient client;
+	
+	private EventLog clientLog;
+	
+	protected void setUp() throws Exception {
+		server = new LoopbackServer();
+		serverLog = new EventLog();
+		server.addConnectionListener(serverLog);
+		server.open(0);
+		
+		clientLog = new EventLog();
+		client = new LoopbackClient();
+		client.addConnectionListener(clientLog);
+		client.addPacketListener(clientLog);
+	}
+	
+	protected void tearDown() {
+		client.disconnect();
+		server.close();
+	}
+	
+	private RemoteClient connect() throws NetworkException {
+		client.connect("localhost", server.getPort());
+		server.dispatch();
+		
+		return serverLog.client(0);
+	}
+	
+	public void testSendBothWays() throws Exception {
+		final RemoteClient remote = connect();
+		
+		assertEquals(1, clientLog.count("connected"));
+		assertEquals(1, serverLog.count("connected"));
+		assertSame(remote, server.getClient(remote.getId()));
+		assertEquals(1, server.getClientCount());
+		
+		client.send("ping");
+		client.send("ping 2");
+		assertEquals(0, serverLog.packets.size());
+		
+		assertEquals(2, server.dispatch());
+		assertEquals("ping", serverLog.packets.elementAt(0));
+		assertEquals("ping 2", serverLog.packets.elementAt(1));
+		
+		remote.send("pong");
+		assertEquals(0, clientLog.packets.size());
+		
+		assertEquals(1, client.dispatch());
+		assertEquals("pong", clientLog.packets.elementAt(0));
+		
+		assertEquals(0, server.dispatch());
+		assertEquals(0, client.dispatch());
+	}
+	
+	public void testSerializingDeliversCopy() throws Exception {
+		final RemoteClient remote = connect();
+		final Payload payload = new Payload(7);
+		
+		client.send(payload);
+		server.dispatch();
+		
+		final Object received = serverLog.packets.elementAt(0);
+		
+		assertEquals(payload, received);
+		assertTrue(received != payload);
+		
+		remote.send(payload);
+		client.dispatch();
+		
+		assertEquals(payload, clientLog.packets.elementAt(0));
+		assertTrue(clientLog.packets.elementAt(0) != payload);
+	}
+	
+	public void testNotSerializingDeliversReference() throws Exception {
+		server.setSerializing(false);
+		
+		final RemoteClient remote = connect();
+		final Payload payload = new Payload(7);
+		
+		client.send(payload);
+		server.dispatch();
+		assertSame(payload, serverLog.packets.elementAt(0));
+		
+		remote.send(payload);
+		client.dispatch();
+		assertSame(payload, clientLog.packets.elementAt(0));
+	}
+	
+	public void testNotSerializable() throws Exception {
+		server.setSerializing(false);
+		connect();
+		
+		try {
+			client.send(new Object());
+			fail("object sent");
+		} catch (NotSerializableException e) {
+			// expected
+		}
+		
+		assertEquals(0, server.dispatch());
+	}
+	
+	public void testQueueFull() throws Exception {
+		server.setQueueCapacity(2);
+		
+		final RemoteClient remote = connect();
+		
+		client.send("1");
+		client.send("2");
+		
+		try {
+			client.send("3");
+			fail("queue overflow accepted");
+		} catch (NetworkException e) {
+			// expected
+		}
+		
+		remote.send("1");
+		remote.send("2");
+		
+		try {
+			remote.send("3");
+			fail("queue overflow accepted");
+		} catch (NetworkException e) {
+			// expected
+		}
+		
+		assertEquals(2, server.dispatch());
+		client.send("3");
+		assertEquals(1, server.dispatch());
+	}
+	
+	public void testClientDisconnect() throws Exception {
+		final RemoteClient remote = connect();
+		
+		client.disconnect();
+		client.disconnect();
+		
+		assertEquals(1, clientLog.count("disconnected " + DisconnectReason.UserAction));
+		assertFalse(client.isConnected());
+		
+		server.dispatch();
+		server.dispatch();
+		
+		assertEquals(1, serverLog.count("disconnected"));
+		assertEquals(1, serverLog.count("disconnected " + remote.getId() + " " + DisconnectReason.Reset));
+		assertFalse(remote.isConnected());
+		assertNull(server.getClient(remote.getId()));
+		assertEquals(1, clientLog.count("disconnected"));
+	}
+	
+	public void testServerDisconnect() throws Exception {
+		final RemoteClient remote = connect();
+		
+		remote.disconnect();
+		remote.disconnect();
+		server.dispatch();
+		
+		assertEquals(1, serverLog.count("disconnected"));
+		assertEquals(1, serverLog.count("disconnected " + remote.getId() + " " + DisconnectReason.UserAction));
+		assertEquals(0, server.getClientCount());
+		
+		client.dispatch();
+		client.dispatch();
+		
+		assertEquals(1, clientLog.count("disconnected"));
+		assertEquals(1, clientLog.count("disconnected " + DisconnectReason.Reset));
+		assertFalse(client.isConnected());
+		assertEquals(1, serverLog.count("disconnected"));
+	}
+	
+	public void testPortInUse() throws Exception {
+		final LoopbackServer other = new LoopbackServer();
+		final int port = server.getPort();
+		
+		try {
+			other.open(port);
+			fail("port opened twice");
+		} catch (PortInUseException e) {
+			// expected
+		}
+		
+		assertFalse(other.isOpen());
+		
+		server.close();
+		other.open(port);
+		assertSame(other, LoopbackServer.find(port));
+		other.close();
+	}
+	
+	public void testEphemeralPorts() throws Exception {
+		final LoopbackServer other = new LoopbackServer();
+		
+		other.open(0);
+		
+		try {
+			assertTrue(server.getPort() >= 49152);
+			assertTrue(other.getPort() >= 49152);
+			assertTrue(other.getPort() != server.getPort());
+			assertSame(other, LoopbackServer.find(other.getPort()));
+		} finally {
+			other.close();
+		}
+		
+		assertNull(LoopbackServer.find(other.getPort()));
+	}
+	
+	private static class Payload implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int value;
+		
+		Payload(int value) {
+			this.value = value;
+		}
+		
+		public boolean equals(Object o) {
+			return o instanceof Payload && ((Payload) o).value == value;
+		}
+		
+		public int hashCode() {
+			return value;
+		}
+		
+		public String toString() {
+			return "payload " + value;
+		}
+	}
+}
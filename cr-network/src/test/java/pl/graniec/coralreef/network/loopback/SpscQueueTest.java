@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.loopback;
+
+import junit.framework.TestCase;
+
+public class SpscQueueTest extends TestCase {
+
+	public void testCapacityIsRoundedUp() {
+		final SpscQueue queue = new SpscQueue(3);
+		
+		for (int i = 0; i < 4; ++i) {
+			assertTrue(queue.offer(new Integer(i)));
+		}
+		
+		assertFalse(queue.offer(new Integer(4)));
+	}
+	
+	public void testFifoOrderAcrossWrapAround() {
+		final SpscQueue queue = new SpscQueue(4);
+		int offered = 0;
+		int polled = 0;
+		
+		for (int round = 0; round < 10; ++round) {
+			while (queue.offer(new Integer(offered))) {
+				++offered;
+			}
+			
+			for (int i = 0; i < 3; ++i) {
+				assertEquals(new Integer(polled++), queue.poll());
+			}
+		}
+		
+		while (!queue.isEmpty()) {
+			assertEquals(new Integer(polled++), queue.poll());
+		}
+		
+		assertEquals(offered, polled);
+		assertNull(queue.poll());
+	}
+	
+	public void testTwoThreads() throws Exception {
+		final SpscQueue queue = new SpscQueue(16);
+		final int count = 100000;
+		
+		final Thread producer = new Thread() {
+			public void run() {
+				for (int i = 0; i < count; ++i) {
+					while (!queue.offer(new Integer(i))) {
+						Thread.yield();
+					}
+				}
+			}
+		};
+		
+		producer.start();
+		
+		for (int i = 0; i < count; ++i) {
+			Object element;
+			
+			while ((element = queue.poll()) == null) {
+				Thread.yield();
+			}
+			
+			assertEquals(new Integer(i), element);
+		}
+		
+		producer.join();
+		assertTrue(queue.isEmpty());
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.server;
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+public class ClientRegistryTest extends TestCase {
+
+	private ClientRegistry registry;
+	
+	protected void setUp() {
+		registry = new ClientRegistry();
+	}
+	
+	private RemoteClient client() {
+		return new StubRemoteClient(registry.nextId());
+	}
+	
+	private Vector visitAll() {
+		final Vector visited = new Vector();
+		
+		registry.forEach(new ClientVisitor() {
+			public void visit(RemoteClient client) {
+				visited.addElement(client);
+			}
+		});
+		
+		return visited;
+	}
+	
+	public void testAddGetRemove() {
+		final RemoteClient[] clients = new RemoteClient[100];
+		
+		for (int i = 0; i < clients.length; ++i) {
+			clients[i] = client();
+			assertTrue(registry.add(clients[i]));
+		}
+		
+		assertFalse(registry.add(clients[0]));
+		assertEquals(100, registry.size());
+		
+		for (int i = 0; i < clients.length; i += 2) {
+			assertTrue(registry.remove(clients[i]));
+		}
+		
+		assertFalse(registry.remove(clients[0]));
+		assertEquals(50, registry.size());
+		
+		for (int i = 0; i < clients.length; ++i) {
+			if (i % 2 == 0) {
+				assertNull(registry.get(clients[i].getId()));
+			} else {
+				assertSame(clients[i], registry.get(clients[i].getId()));
+			}
+		}
+		
+		final Vector visited = visitAll();
+		
+		assertEquals(50, visited.size());
+		
+		for (int i = 1; i < clients.length; i += 2) {
+			assertTrue(visited.contains(clients[i]));
+		}
+	}
+	
+	public void testRemoveLastAndOnly() {
+		final RemoteClient client = client();
+		
+		registry.add(client);
+		assertTrue(registry.remove(client));
+		
+		assertTrue(registry.isEmpty());
+		assertEquals(0, visitAll().size());
+	}
+	
+	public void testChurnDuringIteration() {
+		final RemoteClient a = client();
+		final RemoteClient b = client();
+		final RemoteClient c = client();
+		final Vector visited = new Vector();
+		
+		registry.add(a);
+		registry.add(b);
+		
+		registry.forEach(new ClientVisitor() {
+			public void visit(RemoteClient client) {
+				visited.addElement(client);
+				registry.remove(a);
+				registry.remove(b);
+				registry.add(c);
+			}
+		});
+		
+		// iteration sees the clients registered when it started
+		assertEquals(2, visited.size());
+		
+		assertEquals(1, visitAll().size());
+		assertSame(c, visitAll().elementAt(0));
+	}
+	
+	public void testNestedIterationAfterChurn() {
+		final RemoteClient a = client();
+		final RemoteClient b = client();
+		final RemoteClient c = client();
+		final Vector visited = new Vector();
+		final Vector nested = new Vector();
+		
+		registry.add(a);
+		registry.add(b);
+		
+		registry.forEach(new ClientVisitor() {
+			public void visit(RemoteClient client) {
+				visited.addElement(client);
+				
+				if (nested.isEmpty()) {
+					registry.remove(a);
+					registry.add(c);
+					nested.addAll(visitAll());
+				}
+			}
+		});
+		
+		// nested iteration must not overwrite the outer one
+		assertEquals(2, visited.size());
+		assertTrue(visited.contains(a));
+		assertTrue(visited.contains(b));
+		
+		assertEquals(2, nested.size());
+		assertTrue(nested.contains(b));
+		assertTrue(nested.contains(c));
+	}
+	
+	public void testIterationAfterShrinkAndGrow() {
+		final RemoteClient[] clients = new RemoteClient[40];
+		
+		for (int i = 0; i < clients.length; ++i) {
+			clients[i] = client();
+			registry.add(clients[i]);
+		}
+		
+		assertEquals(40, visitAll().size());
+		
+		for (int i = 5; i < clients.length; ++i) {
+			registry.remove(clients[i]);
+		}
+		
+		Vector visited = visitAll();
+		
+		assertEquals(5, visited.size());
+		
+		for (int i = 0; i < 5; ++i) {
+			assertTrue(visited.contains(clients[i]));
+		}
+		
+		for (int i = 5; i < clients.length; ++i) {
+			registry.add(clients[i]);
+		}
+		
+		visited = visitAll();
+		
+		assertEquals(40, visited.size());
+		
+		for (int i = 0; i < clients.length; ++i) {
+			assertTrue(visited.contains(clients[i]));
+		}
+	}
+	
+	public void testIdentifiersAreUnique() {
+		final RemoteClient first = client();
+		
+		registry.add(first);
+		
+		assertTrue(client().getId() != first.getId());
+		assertTrue(first.getId() > 0);
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2009, Coral Reef Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  * Neither the name of the Coral Reef Project nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package pl.graniec.coralreef.network.util;
+
+import java.util.Hashtable;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class IntObjectMapTest extends TestCase {
+
+	public void testPutGetReplace() {
+		final IntObjectMap map = new IntObjectMap();
+		
+		assertNull(map.put(1, "a"));
+		assertNull(map.put(-5, "b"));
+		assertEquals("a", map.put(1, "c"));
+		
+		assertEquals("c", map.get(1));
+		assertEquals("b", map.get(-5));
+		assertNull(map.get(2));
+		assertEquals(2, map.size());
+	}
+	
+	public void testGrowing() {
+		final IntObjectMap map = new IntObjectMap(1);
+		
+		for (int i = 0; i < 10000; ++i) {
+			map.put(i * 16, new Integer(i));
+		}
+		
+		assertEquals(10000, map.size());
+		
+		for (int i = 0; i < 10000; ++i) {
+			assertEquals(new Integer(i), map.get(i * 16));
+		}
+	}
+	
+	public void testRemoveKeepsOtherKeysReachable() {
+		final IntObjectMap map = new IntObjectMap(64);
+		
+		// dense keys make long probe chains in a small table
+		for (int i = 0; i < 60; ++i) {
+			map.put(i, new Integer(i));
+		}
+		
+		for (int i = 0; i < 60; i += 3) {
+			assertEquals(new Integer(i), map.remove(i));
+		}
+		
+		for (int i = 0; i < 60; ++i) {
+			if (i % 3 == 0) {
+				assertNull(map.get(i));
+			} else {
+				assertEquals(new Integer(i), map.get(i));
+			}
+		}
+		
+		assertEquals(40, map.size());
+		assertNull(map.remove(0));
+	}
+	
+	public void testRandomOperationsMatchHashtable() {
+		final IntObjectMap map = new IntObjectMap(4);
+		final Hashtable expected = new Hashtable();
+		final Random random = new Random(31);
+		
+		for (int i = 0; i < 100000; ++i) {
+			final int key = random.nextInt(300) - 150;
+			final Integer boxed = new Integer(key);
+			
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(boxed), map.remove(key));
+			} else {
+				final Object value = new Integer(i);
+				assertEquals(expected.put(boxed, value), map.put(key, value));
+			}
+			
+			assertEquals(expected.size(), map.size());
+		}
+		
+		for (int key = -150; key < 150; ++key) {
+			assertEquals(expected.get(new Integer(key)), map.get(key));
+		}
+	}
+	
+	public void testClear() {
+		final IntObjectMap map = new IntObjectMap();
+		
+		map.put(3, "x");
+		map.clear();
+		
+		assertEquals(0, map.size());
+		assertFalse(map.containsKey(3));
+	}
+}